@@ -6,11 +6,14 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 import com.google.common.base.CharMatcher;
+import com.google.common.hash.Hashing;
 import com.google.gson.*;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -38,6 +41,8 @@ public class U {
     private static final org.joda.time.format.DateTimeFormatter yyyyMMdd = DateTimeFormat.forPattern("yyyy-MM-dd");
     private static final Random r = new SecureRandom();
     private static ObjectMapper mapper = JsonFactory.build();
+    private static ObjectMapper smileMapper = JsonFactory.build(new SmileFactory());
+    private static ObjectMapper cborMapper = JsonFactory.build(new CBORFactory());
 
 
     public static <T extends Enum<?>> T toEnum(Class<T> enumeration, String txt) {
@@ -57,6 +62,18 @@ public class U {
         return DigestUtils.md5DigestAsHex(value.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * A fast non-cryptographic 128 bit hash (murmur3), use where md5 is only
+     * needed to fingerprint content, e.g. ETags.
+     */
+    public static String murmur128(byte[] value) {
+        return Hashing.murmur3_128().hashBytes(value).toString();
+    }
+
+    public static String murmur128(String value) {
+        return murmur128(value.getBytes(StandardCharsets.UTF_8));
+    }
+
 
     public static String encodeURIComponent(String s) {
         String result = null;
@@ -125,6 +142,20 @@ public class U {
         return JsonFactory.build();
     }
 
+    /**
+     * Same configuration as {@link #getObjectMapper()} but writes the binary Smile format.
+     */
+    public static ObjectMapper getSmileObjectMapper() {
+        return JsonFactory.build(new SmileFactory());
+    }
+
+    /**
+     * Same configuration as {@link #getObjectMapper()} but writes the binary CBOR format.
+     */
+    public static ObjectMapper getCborObjectMapper() {
+        return JsonFactory.build(new CBORFactory());
+    }
+
     public static JsonNode toJsonNode(String json) {
         try {
             return mapper.readTree(json);
@@ -183,6 +214,44 @@ public class U {
         }
     }
 
+    public static byte[] toSmile(final Object obj) {
+        if (obj == null) {
+            return null;
+        }
+        try {
+            return smileMapper.writeValueAsBytes(obj);
+        } catch (Exception e) {
+            throw new RuntimeException("Error converting to smile", e);
+        }
+    }
+
+    public static <T> T fromSmile(final byte[] smile, final Class<T> type) {
+        try {
+            return smileMapper.readValue(smile, type);
+        } catch (Exception ex) {
+            throw new RuntimeException("Error converting from smile", ex);
+        }
+    }
+
+    public static byte[] toCbor(final Object obj) {
+        if (obj == null) {
+            return null;
+        }
+        try {
+            return cborMapper.writeValueAsBytes(obj);
+        } catch (Exception e) {
+            throw new RuntimeException("Error converting to cbor", e);
+        }
+    }
+
+    public static <T> T fromCbor(final byte[] cbor, final Class<T> type) {
+        try {
+            return cborMapper.readValue(cbor, type);
+        } catch (Exception ex) {
+            throw new RuntimeException("Error converting from cbor", ex);
+        }
+    }
+
     public static <T> T fromYaml(final String yaml, final Class<T> type) {
         try {
             ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
@@ -271,7 +340,11 @@ public class U {
 
     private static class JsonFactory {
         public static ObjectMapper build() {
-            ObjectMapper o = new ObjectMapper();
+            return build(new com.fasterxml.jackson.core.JsonFactory());
+        }
+
+        public static ObjectMapper build(com.fasterxml.jackson.core.JsonFactory factory) {
+            ObjectMapper o = new ObjectMapper(factory);
             // ISO3 format for JSON documents
             o = o.setDateFormat(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ"));
             // serialization defaults
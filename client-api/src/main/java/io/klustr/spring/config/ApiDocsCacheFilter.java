@@ -0,0 +1,196 @@
+package io.klustr.spring.config;
+
+import io.klustr.spring.U;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springdoc.core.models.GroupedOpenApi;
+import org.springdoc.core.utils.Constants;
+import org.springdoc.webmvc.api.MultipleOpenApiWebMvcResource;
+import org.springdoc.webmvc.api.OpenApiWebMvcResource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the OpenAPI documents, JSON and YAML, of the default and every grouped API
+ * from memory.
+ * <p>
+ * springdoc keeps the model but serializes it again on every call, and the documents
+ * are public, so anyone can make the server do it in a loop. Here every document is
+ * rendered once when the application context is refreshed, or {@link #refresh()} is
+ * called, for a fixed server URL rather than the Host of some request. The bytes are
+ * kept along with a gzip copy and an ETag, and a request for a document is answered
+ * from those whatever its query string or Host header. Anything else under the
+ * documents path, the swagger-ui config or a document that failed to render, is left
+ * to springdoc.
+ */
+public class ApiDocsCacheFilter extends OncePerRequestFilter implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(ApiDocsCacheFilter.class);
+
+    private final String apiDocsPath;
+    private final String serverUrl;
+    private final ObjectProvider<OpenApiWebMvcResource> openApi;
+    private final ObjectProvider<MultipleOpenApiWebMvcResource> groupedOpenApi;
+    private final ObjectProvider<GroupedOpenApi> groups;
+
+    // by path within the context, replaced as a whole on refresh
+    private volatile Map<String, Document> documents = Map.of();
+
+    /**
+     * @param apiDocsPath    The springdoc documents path, {@code springdoc.api-docs.path}.
+     * @param serverUrl      The base URL the documents list as their server, including
+     *                       the context path.
+     * @param openApi        springdoc's resource for the default documents.
+     * @param groupedOpenApi springdoc's resource for the documents of the groups.
+     * @param groups         The groups.
+     */
+    public ApiDocsCacheFilter(String apiDocsPath, String serverUrl, ObjectProvider<OpenApiWebMvcResource> openApi,
+                              ObjectProvider<MultipleOpenApiWebMvcResource> groupedOpenApi, ObjectProvider<GroupedOpenApi> groups) {
+        this.apiDocsPath = apiDocsPath;
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        this.openApi = openApi;
+        this.groupedOpenApi = groupedOpenApi;
+        this.groups = groups;
+    }
+
+    /**
+     * Renders every document again, e.g. after the API changed.
+     */
+    public void refresh() {
+        Map<String, Document> rendered = new HashMap<>();
+        Locale locale = Locale.getDefault();
+        String yamlPath = apiDocsPath + ".yaml";
+
+        OpenApiWebMvcResource resource = openApi.getIfAvailable();
+        if (resource != null) {
+            render(rendered, apiDocsPath, MediaType.APPLICATION_JSON_VALUE,
+                    () -> resource.openapiJson(request(apiDocsPath), apiDocsPath, locale));
+            render(rendered, yamlPath, Constants.APPLICATION_OPENAPI_YAML,
+                    () -> resource.openapiYaml(request(yamlPath), yamlPath, locale));
+        }
+
+        MultipleOpenApiWebMvcResource grouped = groupedOpenApi.getIfAvailable();
+        if (grouped != null) {
+            for (GroupedOpenApi group : groups) {
+                String name = group.getGroup();
+                render(rendered, apiDocsPath + "/" + name, MediaType.APPLICATION_JSON_VALUE,
+                        () -> grouped.openapiJson(request(apiDocsPath + "/" + name), apiDocsPath, name, locale));
+                render(rendered, yamlPath + "/" + name, Constants.APPLICATION_OPENAPI_YAML,
+                        () -> grouped.openapiYaml(request(yamlPath + "/" + name), yamlPath, name, locale));
+            }
+        }
+
+        documents = Map.copyOf(rendered);
+        log.info("Rendered {} OpenAPI documents for {}", rendered.size(), serverUrl);
+    }
+
+    private static void render(Map<String, Document> into, String path, String contentType, Callable<byte[]> springdoc) {
+        try {
+            into.put(path, new Document(contentType, springdoc.call()));
+        } catch (Exception | LinkageError e) {
+            // a document springdoc cannot render must not stop the application
+            log.warn("Could not render the OpenAPI document {}, springdoc serves it on every request", path, e);
+        }
+    }
+
+    /**
+     * A request for the document at the path. springdoc reads only its URL, which the
+     * server entry of the document is derived from.
+     */
+    private HttpServletRequest request(String path) {
+        String url = serverUrl + path;
+        return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getRequestURL" -> new StringBuffer(url);
+                    case "toString" -> "GET " + url;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException("HttpServletRequest." + method.getName());
+                });
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        refresh();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String method = request.getMethod();
+        return (!HttpMethod.GET.matches(method) && !HttpMethod.HEAD.matches(method))
+                || !request.getRequestURI().startsWith(request.getContextPath() + apiDocsPath);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        Document document = documents.get(request.getRequestURI().substring(request.getContextPath().length()));
+        if (document == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        document.writeTo(request, response);
+    }
+
+    /**
+     * A rendered document, never modified once built.
+     */
+    private static final class Document {
+        private final String contentType;
+        private final byte[] identity;
+        private final byte[] gzip;
+        private final String etag;
+        private final String gzipEtag;
+
+        Document(String contentType, byte[] identity) throws IOException {
+            this.contentType = contentType;
+            this.identity = identity;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(identity.length / 4 + 64);
+            try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                gz.write(identity);
+            }
+            this.gzip = out.toByteArray();
+
+            String hash = U.murmur128(identity);
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gzip\"";
+        }
+
+        void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            boolean gzipped = CompressionFilter.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING)) == CompressionFilter.Encoding.GZIP;
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (new ServletWebRequest(request, response).checkNotModified(gzipped ? gzipEtag : etag)) {
+                return;
+            }
+
+            byte[] body = gzipped ? gzip : identity;
+            response.setContentType(contentType);
+            if (gzipped) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+            response.setContentLength(body.length);
+            if (!HttpMethod.HEAD.matches(request.getMethod())) {
+                response.getOutputStream().write(body);
+            }
+        }
+    }
+}
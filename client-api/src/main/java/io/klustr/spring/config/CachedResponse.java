@@ -0,0 +1,49 @@
+package io.klustr.spring.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the serialized response of an idempotent GET endpoint, see {@link ResponseCache}.
+ * <pre>
+ * &#64;GetMapping("/hello")
+ * &#64;PreAuthorize("hasAuthority('SCOPE_profile')")
+ * &#64;CachedResponse(ttl = 60)
+ * </pre>
+ * A cached response is only ever replayed to a caller holding exactly the same
+ * authorities as the one it was produced for, since the controller, and with it
+ * {@code @PreAuthorize}, is skipped on a hit.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CachedResponse {
+
+    /**
+     * How long a response is served from the cache.
+     */
+    long ttl() default 60;
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * What the response depends on besides the request URI and {@code Accept} header.
+     */
+    VaryBy varyBy() default VaryBy.PRINCIPAL;
+
+    enum VaryBy {
+        /**
+         * One entry per principal, e.g. a greeting with the user's name.
+         */
+        PRINCIPAL,
+
+        /**
+         * One entry per set of granted scopes and permissions, shared between principals.
+         */
+        SCOPE
+    }
+}
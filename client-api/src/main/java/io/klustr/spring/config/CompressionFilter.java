@@ -0,0 +1,581 @@
+package io.klustr.spring.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses responses with gzip or deflate, negotiated from {@code Accept-Encoding}.
+ * <p>
+ * The first {@code minSize} bytes are held back; a response that ends before then is
+ * sent as is with its {@code Content-Length}, anything larger is streamed through a
+ * {@link Deflater} borrowed from a pool, so the body is never buffered as a whole
+ * and no native deflater is allocated per response.
+ * <p>
+ * Async responses, e.g. a {@code StreamingResponseBody}, are compressed too. The body
+ * is written on another thread and an explicit flush pushes out what was deflated so
+ * far, the stream is finished once the last async dispatch is done.
+ * <p>
+ * Publishes {@code http.server.compression.ratio} (compressed / original size) and
+ * {@code http.server.compression.cpu} (thread CPU time spent deflating) per encoding,
+ * which is what the threshold and level should be tuned against.
+ */
+public class CompressionFilter extends OncePerRequestFilter {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private static final String ASYNC_WRAPPER = CompressionFilter.class.getName() + ".wrapper";
+
+    private static final byte[] GZIP_HEADER = new byte[]{
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final int minSize;
+    private final List<MediaType> mediaTypes;
+    private final DeflaterPool gzipPool;
+    private final DeflaterPool deflatePool;
+
+    private final DistributionSummary gzipRatio;
+    private final DistributionSummary deflateRatio;
+    private final Timer gzipCpu;
+    private final Timer deflateCpu;
+
+    /**
+     * @param minSize    Responses smaller than this many bytes are sent uncompressed.
+     * @param level      The {@link Deflater} level, 1 (fast) to 9 (small).
+     * @param mediaTypes The content types worth compressing, wildcards allowed.
+     * @param registry   Where the ratio and CPU metrics are published.
+     */
+    public CompressionFilter(int minSize, int level, List<String> mediaTypes, MeterRegistry registry) {
+        this.minSize = minSize;
+        this.mediaTypes = MediaType.parseMediaTypes(mediaTypes);
+
+        int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+        this.gzipPool = new DeflaterPool(poolSize, level, true);
+        this.deflatePool = new DeflaterPool(poolSize, level, false);
+
+        this.gzipRatio = ratio(registry, Encoding.GZIP);
+        this.deflateRatio = ratio(registry, Encoding.DEFLATE);
+        this.gzipCpu = cpu(registry, Encoding.GZIP);
+        this.deflateCpu = cpu(registry, Encoding.DEFLATE);
+    }
+
+    private static DistributionSummary ratio(MeterRegistry registry, Encoding encoding) {
+        return DistributionSummary.builder("http.server.compression.ratio")
+                .description("Compressed size divided by original size")
+                .tag("encoding", encoding.token)
+                .register(registry);
+    }
+
+    private static Timer cpu(MeterRegistry registry, Encoding encoding) {
+        return Timer.builder("http.server.compression.cpu")
+                .description("CPU time spent compressing a response")
+                .tag("encoding", encoding.token)
+                .register(registry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getHeader(HttpHeaders.ACCEPT_ENCODING) == null;
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        // the compressor of an async response is finished at the end of its last dispatch
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        CompressingResponseWrapper wrapper;
+        if (isAsyncDispatch(request)) {
+            wrapper = (CompressingResponseWrapper) request.getAttribute(ASYNC_WRAPPER);
+            if (wrapper == null) {
+                chain.doFilter(request, response);
+                return;
+            }
+        } else {
+            Encoding encoding = negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            if (encoding == null) {
+                chain.doFilter(request, response);
+                return;
+            }
+            wrapper = new CompressingResponseWrapper(request, response, encoding);
+        }
+
+        boolean async = false;
+        try {
+            chain.doFilter(request, wrapper);
+            if (request.isAsyncStarted()) {
+                // still being written; a client gone before the next dispatch leaves the
+                // deflater to the GC rather than back in the pool under a running writer
+                async = true;
+                request.setAttribute(ASYNC_WRAPPER, wrapper);
+            } else {
+                wrapper.complete();
+            }
+        } finally {
+            if (!async) {
+                request.removeAttribute(ASYNC_WRAPPER);
+                wrapper.releaseDeflater();
+            }
+        }
+    }
+
+    /**
+     * Picks gzip over deflate on equal quality, honouring {@code q=0} and {@code *}.
+     *
+     * @return The encoding to use or null when the client accepts neither.
+     */
+    static Encoding negotiate(String acceptEncoding) {
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return null;
+        }
+
+        double gzip = -1, deflate = -1, any = -1;
+        for (String token : StringUtils.split(acceptEncoding, ',')) {
+            String[] parts = StringUtils.split(token, ';');
+            if (parts.length == 0) {
+                continue;
+            }
+            String name = parts[0].trim().toLowerCase();
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (name) {
+                case "gzip", "x-gzip" -> gzip = q;
+                case "deflate" -> deflate = q;
+                case "*" -> any = q;
+                default -> {
+                }
+            }
+        }
+
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        if (gzip > 0 && gzip >= deflate) return Encoding.GZIP;
+        if (deflate > 0) return Encoding.DEFLATE;
+        return null;
+    }
+
+    private boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        try {
+            MediaType type = MediaType.parseMediaType(contentType);
+            for (MediaType each : mediaTypes) {
+                if (each.includes(type)) {
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            return false;
+        }
+        return false;
+    }
+
+    private static long cpuNanos() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+    }
+
+    /**
+     * Keeps reset {@link Deflater}s around, they hold native memory and are expensive
+     * to create and to let the GC clean up. Once the pool is full extra deflaters are
+     * ended rather than kept.
+     */
+    static class DeflaterPool {
+        private final BlockingQueue<Deflater> idle;
+        private final int level;
+        private final boolean nowrap;
+
+        DeflaterPool(int size, int level, boolean nowrap) {
+            this.idle = new ArrayBlockingQueue<>(size);
+            this.level = level;
+            this.nowrap = nowrap;
+        }
+
+        Deflater borrow() {
+            Deflater deflater = idle.poll();
+            return deflater != null ? deflater : new Deflater(level, nowrap);
+        }
+
+        void release(Deflater deflater) {
+            deflater.reset();
+            if (!idle.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    private enum Mode {UNDECIDED, PASS, COMPRESS}
+
+    private class CompressingResponseWrapper extends HttpServletResponseWrapper {
+
+        private final HttpServletRequest request;
+        private final Encoding encoding;
+
+        private Mode mode = Mode.UNDECIDED;
+
+        // bytes held back until we know the response is worth compressing
+        private byte[] pending;
+        private int pendingSize;
+
+        // held back until we know whether the body goes out compressed
+        private long contentLength = -1;
+
+        private Deflater deflater;
+        private CompressorStream compressor;
+        private long cpu;
+
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+        private final byte[] single = new byte[1];
+
+        CompressingResponseWrapper(HttpServletRequest request, HttpServletResponse response, Encoding encoding) {
+            super(response);
+            this.request = request;
+            this.encoding = encoding;
+        }
+
+        private HttpServletResponse raw() {
+            return (HttpServletResponse) getResponse();
+        }
+
+        private void decide() throws IOException {
+            HttpServletResponse raw = raw();
+            boolean compressible = isCompressible(raw.getContentType());
+            if (compressible) {
+                raw.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+
+            if (!compressible
+                    || raw.getHeader(HttpHeaders.CONTENT_ENCODING) != null
+                    || (contentLength >= 0 && contentLength < minSize)) {
+                pass();
+            } else {
+                pending = new byte[Math.max(minSize, 1)];
+            }
+        }
+
+        private void pass() throws IOException {
+            mode = Mode.PASS;
+            if (contentLength >= 0) {
+                raw().setContentLengthLong(contentLength);
+                contentLength = -1;
+            }
+            if (pendingSize > 0) {
+                raw().getOutputStream().write(pending, 0, pendingSize);
+            }
+            pending = null;
+            pendingSize = 0;
+        }
+
+        private void startCompressing() throws IOException {
+            HttpServletResponse raw = raw();
+            raw.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.token);
+            contentLength = -1;
+
+            // the bytes on the wire differ from the identity body, so a strong tag no longer holds
+            String etag = raw.getHeader(HttpHeaders.ETAG);
+            if (etag != null && !etag.startsWith("W/")) {
+                raw.setHeader(HttpHeaders.ETAG, "W/" + etag);
+            }
+
+            long start = cpuNanos();
+            deflater = (encoding == Encoding.GZIP ? gzipPool : deflatePool).borrow();
+            compressor = new CompressorStream(raw.getOutputStream(), deflater, encoding == Encoding.GZIP);
+            mode = Mode.COMPRESS;
+            compressor.write(pending, 0, pendingSize);
+            cpu += cpuNanos() - start;
+            pending = null;
+            pendingSize = 0;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (mode == Mode.UNDECIDED && pending == null) {
+                decide();
+            }
+
+            switch (mode) {
+                case PASS -> raw().getOutputStream().write(b, off, len);
+                case COMPRESS -> {
+                    long start = cpuNanos();
+                    compressor.write(b, off, len);
+                    cpu += cpuNanos() - start;
+                }
+                case UNDECIDED -> {
+                    int room = pending.length - pendingSize;
+                    if (len < room) {
+                        System.arraycopy(b, off, pending, pendingSize, len);
+                        pendingSize += len;
+                    } else {
+                        System.arraycopy(b, off, pending, pendingSize, room);
+                        pendingSize += room;
+                        startCompressing();
+                        write(b, off + room, len - room);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (outputStream == null) {
+                outputStream = new CompressingOutputStream();
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            if (mode == Mode.PASS) {
+                super.setContentLengthLong(len);
+            } else if (mode == Mode.UNDECIDED) {
+                contentLength = len;
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && mode != Mode.PASS) {
+                setContentLengthLong(Long.parseLong(value));
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && mode != Mode.PASS) {
+                setContentLengthLong(Long.parseLong(value));
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (mode != Mode.UNDECIDED) {
+                if (writer != null) {
+                    writer.flush();
+                }
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (mode == Mode.COMPRESS) {
+                throw new IllegalStateException("Response body is already being compressed");
+            }
+            super.resetBuffer();
+            pendingSize = 0;
+        }
+
+        @Override
+        public void reset() {
+            if (mode == Mode.COMPRESS) {
+                throw new IllegalStateException("Response body is already being compressed");
+            }
+            super.reset();
+            mode = Mode.UNDECIDED;
+            pending = null;
+            pendingSize = 0;
+            contentLength = -1;
+        }
+
+        void complete() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+
+            switch (mode) {
+                case UNDECIDED -> {
+                    // smaller than the threshold, or no body at all
+                    if (pending != null) {
+                        contentLength = pendingSize;
+                    }
+                    pass();
+                }
+                case COMPRESS -> {
+                    long start = cpuNanos();
+                    compressor.finish();
+                    cpu += cpuNanos() - start;
+
+                    long in = compressor.bytesIn();
+                    if (in > 0) {
+                        (encoding == Encoding.GZIP ? gzipRatio : deflateRatio).record((double) compressor.bytesOut() / in);
+                    }
+                    (encoding == Encoding.GZIP ? gzipCpu : deflateCpu).record(cpu, TimeUnit.NANOSECONDS);
+                }
+                case PASS -> {
+                }
+            }
+        }
+
+        void releaseDeflater() {
+            if (deflater != null) {
+                (encoding == Encoding.GZIP ? gzipPool : deflatePool).release(deflater);
+                deflater = null;
+            }
+        }
+
+        private class CompressingOutputStream extends ServletOutputStream {
+
+            @Override
+            public void write(int b) throws IOException {
+                single[0] = (byte) b;
+                CompressingResponseWrapper.this.write(single, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                CompressingResponseWrapper.this.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                // nothing is committed while a synchronous response is still deciding, a
+                // streamed one wants what it wrote so far on the wire
+                if (mode == Mode.UNDECIDED && pending != null && pendingSize > 0 && request.isAsyncStarted()) {
+                    startCompressing();
+                }
+                if (mode == Mode.PASS) {
+                    raw().getOutputStream().flush();
+                } else if (mode == Mode.COMPRESS) {
+                    compressor.flush();
+                }
+            }
+
+            @Override
+            public boolean isReady() {
+                try {
+                    return raw().getOutputStream().isReady();
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                try {
+                    raw().getOutputStream().setWriteListener(listener);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A {@link DeflaterOutputStream} that leaves the deflater alone on finish so it
+     * can go back to the pool, and adds the gzip framing that
+     * {@link java.util.zip.GZIPOutputStream} would otherwise own.
+     */
+    private static class CompressorStream extends DeflaterOutputStream {
+        private final CRC32 crc;
+        private long bytesOut;
+
+        CompressorStream(OutputStream out, Deflater deflater, boolean gzip) throws IOException {
+            // sync flush, so flush() sends everything deflated so far
+            super(out, deflater, 8192, true);
+            this.crc = gzip ? new CRC32() : null;
+            if (gzip) {
+                out.write(GZIP_HEADER);
+                bytesOut += GZIP_HEADER.length;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            super.finish();
+            bytesOut += def.getBytesWritten();
+            if (crc != null) {
+                writeIntLE((int) crc.getValue());
+                writeIntLE((int) def.getBytesRead());
+                bytesOut += 8;
+            }
+        }
+
+        private void writeIntLE(int v) throws IOException {
+            out.write(v & 0xff);
+            out.write((v >>> 8) & 0xff);
+            out.write((v >>> 16) & 0xff);
+            out.write((v >>> 24) & 0xff);
+        }
+
+        long bytesIn() {
+            return def.getBytesRead();
+        }
+
+        long bytesOut() {
+            return bytesOut;
+        }
+    }
+}
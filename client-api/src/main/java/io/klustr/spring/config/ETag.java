@@ -0,0 +1,23 @@
+package io.klustr.spring.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Controls whether {@link ETagFilter} hashes the response of an endpoint and
+ * answers conditional requests with a 304. Place on a handler method or on the
+ * controller class; a method level annotation wins over the class level one.
+ * <p>
+ * Endpoints without the annotation follow the {@code web.etag.all-endpoints}
+ * setting, so this is an opt-out ({@code @ETag(false)}) when it is enabled and an
+ * opt-in ({@code @ETag}) when it is not.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface ETag {
+    boolean value() default true;
+}
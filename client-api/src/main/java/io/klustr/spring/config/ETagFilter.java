@@ -0,0 +1,300 @@
+package io.klustr.spring.config;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.FastByteArrayOutputStream;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adds a strong {@code ETag} to successful GET and HEAD responses and answers a
+ * matching {@code If-None-Match} with a 304, so polling clients do not download
+ * a body they already have.
+ * <p>
+ * Unlike {@link org.springframework.web.filter.ShallowEtagHeaderFilter} the body is
+ * hashed with murmur3 (128 bit) while the message converter writes it, so the bytes
+ * are held once and never walked a second time. Endpoints that opt out through
+ * {@link ETag}, async responses and non 200 responses are streamed straight through
+ * without any buffering.
+ */
+public class ETagFilter extends OncePerRequestFilter {
+
+    private final boolean allEndpoints;
+
+    // the annotation lookup is done once per handler method
+    private final Map<Method, Boolean> decisions = new ConcurrentHashMap<>();
+
+    /**
+     * @param allEndpoints When true every endpoint is hashed unless annotated with
+     *                     {@code @ETag(false)}, otherwise only endpoints annotated with
+     *                     {@code @ETag} are.
+     */
+    public ETagFilter(boolean allEndpoints) {
+        this.allEndpoints = allEndpoints;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String method = request.getMethod();
+        return !HttpMethod.GET.matches(method) && !HttpMethod.HEAD.matches(method);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        HashingResponseWrapper wrapper = new HashingResponseWrapper(request, response);
+        chain.doFilter(request, wrapper);
+        wrapper.complete();
+    }
+
+    private boolean isEnabledFor(HttpServletRequest request) {
+        Object handler = request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE);
+        if (handler instanceof HandlerMethod handlerMethod) {
+            return decisions.computeIfAbsent(handlerMethod.getMethod(), m -> {
+                ETag etag = AnnotatedElementUtils.findMergedAnnotation(m, ETag.class);
+                if (etag == null) {
+                    etag = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), ETag.class);
+                }
+                return etag != null ? etag.value() : allEndpoints;
+            });
+        }
+        return allEndpoints;
+    }
+
+    private enum Mode {UNDECIDED, BUFFER, PASS}
+
+    /**
+     * Decides on the first write whether the body is hashed. By then the handler is
+     * resolved and the status is set, which is all we need to know.
+     */
+    private class HashingResponseWrapper extends HttpServletResponseWrapper {
+
+        private final HttpServletRequest request;
+
+        private volatile Mode mode = Mode.UNDECIDED;
+        private FastByteArrayOutputStream buffer;
+        private Hasher hasher;
+
+        // held back while buffering, the length is only known once the body is complete
+        private long contentLength = -1;
+
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        HashingResponseWrapper(HttpServletRequest request, HttpServletResponse response) {
+            super(response);
+            this.request = request;
+        }
+
+        private HttpServletResponse raw() {
+            return (HttpServletResponse) getResponse();
+        }
+
+        private boolean buffering() {
+            if (mode == Mode.UNDECIDED) {
+                if (!request.isAsyncStarted() && raw().getStatus() == HttpServletResponse.SC_OK && isEnabledFor(request)) {
+                    buffer = new FastByteArrayOutputStream(1024);
+                    hasher = Hashing.murmur3_128().newHasher();
+                    mode = Mode.BUFFER;
+                } else {
+                    mode = Mode.PASS;
+                    applyContentLength();
+                }
+            }
+            return mode == Mode.BUFFER;
+        }
+
+        private void applyContentLength() {
+            if (contentLength >= 0) {
+                raw().setContentLengthLong(contentLength);
+                contentLength = -1;
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (outputStream == null) {
+                outputStream = new HashingOutputStream();
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            if (mode == Mode.PASS) {
+                super.setContentLengthLong(len);
+            } else {
+                contentLength = len;
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && mode != Mode.PASS) {
+                contentLength = Long.parseLong(value);
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && mode != Mode.PASS) {
+                contentLength = Long.parseLong(value);
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (mode != Mode.BUFFER) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (mode == Mode.BUFFER) {
+                buffer.reset();
+                hasher = Hashing.murmur3_128().newHasher();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            mode = Mode.UNDECIDED;
+            buffer = null;
+            hasher = null;
+            contentLength = -1;
+        }
+
+        /**
+         * Writes the held body, or a 304 when the client already has it.
+         */
+        void complete() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+
+            if (request.isAsyncStarted()) {
+                // the body is produced later on another thread, let it through untouched
+                release();
+                return;
+            }
+
+            if (mode != Mode.BUFFER) {
+                applyContentLength();
+                return;
+            }
+
+            HttpServletResponse raw = raw();
+            if (raw.getStatus() == HttpServletResponse.SC_OK && raw.getHeader(HttpHeaders.ETAG) == null) {
+                String etag = "\"" + hasher.hash() + "\"";
+                // sets the ETag header and, on a match, the 304
+                if (new ServletWebRequest(request, raw).checkNotModified(etag)) {
+                    return;
+                }
+            }
+
+            raw.setContentLength(buffer.size());
+            buffer.writeTo(raw.getOutputStream());
+        }
+
+        private void release() throws IOException {
+            if (mode == Mode.BUFFER) {
+                buffer.writeTo(raw().getOutputStream());
+            }
+            mode = Mode.PASS;
+            buffer = null;
+            hasher = null;
+            applyContentLength();
+        }
+
+        private class HashingOutputStream extends ServletOutputStream {
+
+            @Override
+            public void write(int b) throws IOException {
+                if (buffering()) {
+                    buffer.write(b);
+                    hasher.putByte((byte) b);
+                } else {
+                    raw().getOutputStream().write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (buffering()) {
+                    buffer.write(b, off, len);
+                    hasher.putBytes(b, off, len);
+                } else {
+                    raw().getOutputStream().write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                // a flush would commit the response before the ETag is known
+                if (mode == Mode.PASS) {
+                    raw().getOutputStream().flush();
+                }
+            }
+
+            @Override
+            public boolean isReady() {
+                return mode == Mode.BUFFER || isRawReady();
+            }
+
+            private boolean isRawReady() {
+                try {
+                    return raw().getOutputStream().isReady();
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                try {
+                    raw().getOutputStream().setWriteListener(listener);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.klustr.spring.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every handler in {@code http.server.operation}, tagged with the OpenAPI
+ * {@link Operation#operationId()} and split by phase:
+ * <ul>
+ *     <li>{@code auth} - from the security filter chain until the handler is invoked,
+ *     which covers authentication and token introspection</li>
+ *     <li>{@code handler} - the controller method itself; method security such as
+ *     {@code @PreAuthorize} runs in the controller proxy and is counted here</li>
+ *     <li>{@code serialization} - writing the returned value through the message converter</li>
+ *     <li>{@code total} - all of the above</li>
+ * </ul>
+ * Tags are bounded by the handlers in the code base, methods without an
+ * {@code operationId} use {@code Class.method} and beyond {@code MAX_OPERATIONS}
+ * everything is reported as {@code other}. Timers publish percentile histograms so
+ * p99 can be aggregated across instances.
+ * <p>
+ * Ordered first among the {@link ResponseBodyAdvice}s, an advice such as
+ * {@link ResponseCache} that writes the body itself would otherwise run before the
+ * serialization phase is stamped.
+ */
+@ControllerAdvice
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class OperationMetrics implements HandlerInterceptor, ResponseBodyAdvice<Object> {
+
+    static final String START = OperationMetrics.class.getName() + ".start";
+    static final String HANDLER_START = OperationMetrics.class.getName() + ".handlerStart";
+    static final String SERIALIZATION_START = OperationMetrics.class.getName() + ".serializationStart";
+
+    private static final int MAX_OPERATIONS = 200;
+    private static final String OTHER = "other";
+
+    private enum Phase {AUTH, HANDLER, SERIALIZATION, TOTAL}
+
+    private final MeterRegistry registry;
+
+    // timers per handler method, indexed by Phase ordinal
+    private final Map<Method, Timer[]> timers = new ConcurrentHashMap<>();
+    private final Map<String, Timer[]> byOperation = new ConcurrentHashMap<>();
+
+    public OperationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Marks the start of the request, registered right before the security filters
+     * so the auth phase covers token introspection.
+     */
+    public OncePerRequestFilter startFilter() {
+        return new OncePerRequestFilter() {
+            @Override
+            protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+                request.setAttribute(START, System.nanoTime());
+                chain.doFilter(request, response);
+            }
+        };
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // an async dispatch comes through here a second time
+        if (request.getAttribute(HANDLER_START) == null) {
+            request.setAttribute(HANDLER_START, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (request instanceof ServletServerHttpRequest servletRequest) {
+            servletRequest.getServletRequest().setAttribute(SERIALIZATION_START, System.nanoTime());
+        }
+        return body;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return;
+        }
+        Long handlerStart = (Long) request.getAttribute(HANDLER_START);
+        if (handlerStart == null) {
+            return;
+        }
+
+        long end = System.nanoTime();
+        Long start = (Long) request.getAttribute(START);
+        Long serializationStart = (Long) request.getAttribute(SERIALIZATION_START);
+        Timer[] t = timers(handlerMethod);
+
+        if (start != null) {
+            t[Phase.AUTH.ordinal()].record(handlerStart - start, TimeUnit.NANOSECONDS);
+            t[Phase.TOTAL.ordinal()].record(end - start, TimeUnit.NANOSECONDS);
+        }
+        if (serializationStart != null) {
+            t[Phase.HANDLER.ordinal()].record(serializationStart - handlerStart, TimeUnit.NANOSECONDS);
+            t[Phase.SERIALIZATION.ordinal()].record(end - serializationStart, TimeUnit.NANOSECONDS);
+        } else {
+            t[Phase.HANDLER.ordinal()].record(end - handlerStart, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer[] timers(HandlerMethod handlerMethod) {
+        Timer[] t = timers.get(handlerMethod.getMethod());
+        if (t == null) {
+            t = timers.computeIfAbsent(handlerMethod.getMethod(), m -> {
+                String operation = operationId(handlerMethod);
+                if (byOperation.size() >= MAX_OPERATIONS && !byOperation.containsKey(operation)) {
+                    operation = OTHER;
+                }
+                return byOperation.computeIfAbsent(operation, this::register);
+            });
+        }
+        return t;
+    }
+
+    private static String operationId(HandlerMethod handlerMethod) {
+        Operation operation = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), Operation.class);
+        if (operation != null && StringUtils.isNotBlank(operation.operationId())) {
+            return operation.operationId();
+        }
+        return handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName();
+    }
+
+    private Timer[] register(String operation) {
+        Timer[] t = new Timer[Phase.values().length];
+        for (Phase phase : Phase.values()) {
+            t[phase.ordinal()] = Timer.builder("http.server.operation")
+                    .description("Time spent per API operation and request phase")
+                    .tag("operation", operation)
+                    .tag("phase", phase.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(registry);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,233 @@
+package io.klustr.spring.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.RequestPath;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a request against many path patterns at once, for the long lists of public
+ * endpoints handed to {@code web.ignoring()}.
+ * <p>
+ * Each pattern given to {@code requestMatchers(...)} becomes its own matcher, and every
+ * request is tried against each of them in turn, each asking the MVC handler mappings
+ * for the pattern parser. Here the patterns are compiled once into a tree of path
+ * segments per HTTP method, so a request is decided in one walk down its path.
+ * <p>
+ * Matching follows Spring MVC's {@link org.springframework.web.util.pattern.PathPattern},
+ * which is what {@code requestMatchers(...)} uses when Spring MVC is present:
+ * <ul>
+ *     <li>{@code /**} at the end matches the rest of the path, including nothing;</li>
+ *     <li>{@code *} matches one segment, and an empty last segment ({@code /error/});</li>
+ *     <li>{@code *} and {@code ?} within a segment match any characters, or one character;</li>
+ *     <li>matching is case-sensitive, and a trailing slash is only ignored with
+ *     {@link #trailingSlashMatch(boolean)}, which has to follow Spring MVC's own setting.</li>
+ * </ul>
+ * URI variables ({@code {id}}) are not supported.
+ * <p>
+ * Patterns are added while configuring and must not be added once requests are matched.
+ */
+public class PathTrieRequestMatcher implements RequestMatcher {
+
+    private final Map<String, Node> byMethod = new HashMap<>();
+    private final Node anyMethod = new Node();
+    private final List<String> patterns = new ArrayList<>();
+    private boolean trailingSlashMatch;
+
+    /**
+     * Whether a path with a trailing slash also matches the patterns of the path without
+     * it, {@code /v3/api-docs.yml/} like {@code /v3/api-docs.yml}. Off by default, like
+     * {@link org.springframework.web.servlet.config.annotation.PathMatchConfigurer#setUseTrailingSlashMatch(Boolean)}.
+     */
+    public PathTrieRequestMatcher trailingSlashMatch(boolean trailingSlashMatch) {
+        this.trailingSlashMatch = trailingSlashMatch;
+        return this;
+    }
+
+    /**
+     * Adds patterns matching requests of any method.
+     */
+    public PathTrieRequestMatcher add(String... patterns) {
+        for (String pattern : patterns) {
+            insert(anyMethod, pattern);
+            this.patterns.add(pattern);
+        }
+        return this;
+    }
+
+    /**
+     * Adds patterns matching requests of the given method only.
+     */
+    public PathTrieRequestMatcher add(HttpMethod method, String... patterns) {
+        Node root = byMethod.computeIfAbsent(method.name(), m -> new Node());
+        for (String pattern : patterns) {
+            insert(root, pattern);
+            this.patterns.add(method.name() + " " + pattern);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean matches(HttpServletRequest request) {
+        String[] segments = segments(RequestPath.parse(request.getRequestURI(), request.getContextPath()).pathWithinApplication());
+        if (segments == null) {
+            return false;
+        }
+
+        Node root = byMethod.get(request.getMethod());
+        if (matches(root, segments, segments.length)) {
+            return true;
+        }
+        // again without the trailing slash, only after a segment as PathPattern does: /a/ as
+        // /a, but neither / as nothing nor /a// as /a/
+        int last = segments.length - 1;
+        return trailingSlashMatch && last > 0 && segments[last].isEmpty() && !segments[last - 1].isEmpty()
+                && matches(root, segments, last);
+    }
+
+    private boolean matches(Node root, String[] segments, int end) {
+        return (root != null && root.matches(segments, 0, end)) || anyMethod.matches(segments, 0, end);
+    }
+
+    @Override
+    public String toString() {
+        return "PathTrie " + patterns;
+    }
+
+    private static void insert(Node root, String pattern) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Pattern must start with '/': " + pattern);
+        }
+        if (pattern.indexOf('{') >= 0) {
+            throw new IllegalArgumentException("URI variables are not supported: " + pattern);
+        }
+
+        String[] segments = pattern.substring(1).split("/", -1);
+        Node node = root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals("**")) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("'**' is only allowed at the end: " + pattern);
+                }
+                node.rest = true;
+                return;
+            }
+            node = node.child(segment);
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * Splits the path the same way {@link PathContainer} does, with an empty string for
+     * each separator not followed by a segment: {@code /a//b/} is {@code a, "", b, ""}.
+     * Returns null for a path not starting with a separator, e.g. {@code OPTIONS *}, which
+     * no pattern matches.
+     */
+    private static String[] segments(PathContainer path) {
+        List<PathContainer.Element> elements = path.elements();
+        if (!elements.isEmpty() && !(elements.get(0) instanceof PathContainer.Separator)) {
+            return null;
+        }
+        List<String> segments = new ArrayList<>(elements.size() / 2 + 1);
+        for (PathContainer.Element element : elements) {
+            if (element instanceof PathContainer.PathSegment segment) {
+                segments.set(segments.size() - 1, segment.valueToMatch());
+            } else {
+                segments.add("");
+            }
+        }
+        return segments.toArray(String[]::new);
+    }
+
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private final Map<String, Node> globs = new HashMap<>();
+        private final List<Pattern> globPatterns = new ArrayList<>();
+        private final List<Node> globNodes = new ArrayList<>();
+        private Node wildcard;
+
+        // a pattern ends here
+        private boolean terminal;
+
+        // a pattern ends here with /**, anything below matches
+        private boolean rest;
+
+        Node child(String segment) {
+            if (segment.equals("*")) {
+                if (wildcard == null) {
+                    wildcard = new Node();
+                }
+                return wildcard;
+            }
+            if (segment.indexOf('*') < 0 && segment.indexOf('?') < 0) {
+                return literals.computeIfAbsent(segment, s -> new Node());
+            }
+            return globs.computeIfAbsent(segment, s -> {
+                Node node = new Node();
+                globPatterns.add(glob(s));
+                globNodes.add(node);
+                return node;
+            });
+        }
+
+        boolean matches(String[] segments, int index, int end) {
+            if (rest) {
+                return true;
+            }
+            if (index == end) {
+                return terminal;
+            }
+
+            String segment = segments[index];
+            Node literal = literals.get(segment);
+            if (literal != null && literal.matches(segments, index + 1, end)) {
+                return true;
+            }
+
+            if (wildcard != null) {
+                if (!segment.isEmpty()) {
+                    if (wildcard.matches(segments, index + 1, end)) {
+                        return true;
+                    }
+                } else if (index == end - 1 && wildcard.terminal) {
+                    // a trailing '*' also matches the empty segment after a trailing slash
+                    return true;
+                }
+            }
+
+            for (int i = 0; i < globPatterns.size(); i++) {
+                if (globPatterns.get(i).matcher(segment).matches() && globNodes.get(i).matches(segments, index + 1, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Pattern glob(String segment) {
+            StringBuilder regex = new StringBuilder();
+            int literal = 0;
+            for (int i = 0; i < segment.length(); i++) {
+                char c = segment.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (literal < i) {
+                        regex.append(Pattern.quote(segment.substring(literal, i)));
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                    literal = i + 1;
+                }
+            }
+            if (literal < segment.length()) {
+                regex.append(Pattern.quote(segment.substring(literal)));
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.klustr.spring.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the per principal quota of an endpoint, enforced by {@link RateLimitInterceptor}.
+ * Put it next to the {@code @PreAuthorize} of the handler:
+ * <pre>
+ * &#64;PreAuthorize("hasAuthority('SCOPE_fitness.heart_rate.read')")
+ * &#64;RateLimit(permitsPerSecond = 2, burst = 10)
+ * </pre>
+ * Endpoints guarded by the same authorities share one bucket per principal, so the
+ * quota is effectively per scope or permission. They must then declare the same
+ * quota, startup fails otherwise. Use {@link #bucket()} to group endpoints
+ * differently. Endpoints without the annotation fall under the {@code web.rate-limit}
+ * defaults. Nothing is limited unless {@code web.rate-limit.enabled} is set.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface RateLimit {
+
+    /**
+     * The sustained rate, tokens are refilled continuously at this pace.
+     */
+    double permitsPerSecond();
+
+    /**
+     * How many calls can be made back to back when the bucket is full.
+     */
+    int burst() default 1;
+
+    /**
+     * The bucket name, defaults to the authorities in {@code @PreAuthorize}.
+     */
+    String bucket() default "";
+}
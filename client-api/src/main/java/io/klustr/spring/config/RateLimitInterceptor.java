@@ -0,0 +1,221 @@
+package io.klustr.spring.config;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.klustr.spring.oauth.PreAuthorizeRequirement;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.core.OAuth2AuthenticatedPrincipal;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiting per authenticated principal, answering with a 429 and a
+ * {@code Retry-After} once a principal has used up its quota.
+ * <p>
+ * Each bucket is a single {@link AtomicLong} holding the theoretical arrival time of
+ * the next call (GCRA), so taking a token is one compare-and-set and never blocks.
+ * Buckets live in a size bounded, segmented Guava cache that drops them once idle
+ * for longer than it takes to refill, at which point they would be full anyway.
+ * <p>
+ * A bucket has one quota. Endpoints sharing a bucket must declare the same
+ * {@link RateLimit}, {@link #register(Collection)} checks that at startup.
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String DEFAULT_BUCKET = "default";
+
+    private final Quota defaultQuota;
+    private final Cache<Key, AtomicLong> buckets;
+    private final MeterRegistry registry;
+
+    // quota resolution is done once per handler method, each bucket name maps to one quota
+    private final Map<Method, Quota> quotas = new ConcurrentHashMap<>();
+    private final Map<String, Quota> bucketQuotas = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejections = new ConcurrentHashMap<>();
+
+    /**
+     * @param permitsPerSecond The rate for endpoints without {@link RateLimit}, 0 or less disables it.
+     * @param burst            The burst for endpoints without {@link RateLimit}.
+     * @param maxBuckets       Upper bound of principal and bucket pairs kept in memory.
+     * @param idleEviction     How long an unused bucket is kept.
+     * @param registry         Where rejections are counted.
+     */
+    public RateLimitInterceptor(double permitsPerSecond, int burst, long maxBuckets, Duration idleEviction, MeterRegistry registry) {
+        this.defaultQuota = permitsPerSecond > 0 ? Quota.of(DEFAULT_BUCKET, permitsPerSecond, burst) : null;
+        this.buckets = CacheBuilder.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfterAccess(idleEviction)
+                .build();
+        this.registry = registry;
+    }
+
+    /**
+     * Resolves the quotas of the given handler methods up front.
+     *
+     * @throws IllegalStateException When endpoints sharing a bucket declare different quotas.
+     */
+    public void register(Collection<HandlerMethod> handlerMethods) {
+        for (HandlerMethod handlerMethod : handlerMethods) {
+            quota(handlerMethod);
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+
+        Quota quota = quota(handlerMethod);
+        if (quota == Quota.NONE) {
+            return true;
+        }
+
+        String principal = principal();
+        if (principal == null) {
+            return true;
+        }
+
+        long wait = acquire(bucket(new Key(principal, quota.name())), quota, System.nanoTime());
+        if (wait <= 0) {
+            return true;
+        }
+
+        rejections.computeIfAbsent(quota.name(), name -> Counter.builder("http.server.rate_limited")
+                .description("Requests rejected because the principal ran out of quota")
+                .tag("bucket", name)
+                .register(registry)).increment();
+
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds(wait)));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Rate limit exceeded for " + quota.name());
+        return false;
+    }
+
+    /**
+     * Takes one token.
+     *
+     * @return 0 when the call is allowed, otherwise how many nanoseconds until it would be.
+     */
+    static long acquire(AtomicLong bucket, Quota quota, long now) {
+        while (true) {
+            long tat = bucket.get();
+            long base = Math.max(tat, now);
+            long allowedAt = base - quota.toleranceNanos();
+            if (now < allowedAt) {
+                return allowedAt - now;
+            }
+            if (bucket.compareAndSet(tat, base + quota.intervalNanos())) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return The wait rounded up to whole seconds, at least 1.
+     */
+    static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+    }
+
+    private AtomicLong bucket(Key key) {
+        try {
+            return buckets.get(key, () -> new AtomicLong(Long.MIN_VALUE));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String principal() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated() || authentication instanceof AnonymousAuthenticationToken) {
+            return null;
+        }
+        if (authentication.getPrincipal() instanceof OAuth2AuthenticatedPrincipal principal) {
+            if (StringUtils.isNotBlank(principal.getName())) {
+                return principal.getName();
+            }
+            Object clientId = principal.getAttribute("client_id");
+            return clientId != null ? clientId.toString() : null;
+        }
+        return authentication.getName();
+    }
+
+    private Quota quota(HandlerMethod handlerMethod) {
+        return quotas.computeIfAbsent(handlerMethod.getMethod(), m -> {
+            Quota declared = resolve(handlerMethod);
+            if (declared == Quota.NONE) {
+                return declared;
+            }
+            Quota quota = bucketQuotas.putIfAbsent(declared.name(), declared);
+            if (quota != null && !quota.equals(declared)) {
+                throw new IllegalStateException("Bucket '" + declared.name() + "' of " + handlerMethod
+                        + " is declared with a different @RateLimit elsewhere, give it its own bucket or the same quota");
+            }
+            return quota != null ? quota : declared;
+        });
+    }
+
+    private Quota resolve(HandlerMethod handlerMethod) {
+        RateLimit limit = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), RateLimit.class);
+        if (limit == null) {
+            limit = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), RateLimit.class);
+        }
+        if (limit == null) {
+            return defaultQuota != null ? defaultQuota : Quota.NONE;
+        }
+
+        String name = limit.bucket();
+        if (StringUtils.isBlank(name)) {
+            name = authority(handlerMethod);
+        }
+        return Quota.of(name, limit.permitsPerSecond(), limit.burst());
+    }
+
+    // the authorities of the @PreAuthorize, else the endpoint itself
+    private static String authority(HandlerMethod handlerMethod) {
+        PreAuthorize preAuthorize = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), PreAuthorize.class);
+        if (preAuthorize == null) {
+            preAuthorize = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), PreAuthorize.class);
+        }
+        if (preAuthorize != null) {
+            PreAuthorizeRequirement requirement = PreAuthorizeRequirement.compile(preAuthorize.value());
+            if (requirement != null && !requirement.authorities().isEmpty()) {
+                return String.join(",", requirement.authorities());
+            }
+        }
+        return handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName();
+    }
+
+    private record Key(String principal, String bucket) {
+    }
+
+    record Quota(String name, long intervalNanos, long toleranceNanos) {
+        static final Quota NONE = Quota.of("none", 1, 1);
+
+        static Quota of(String name, double permitsPerSecond, int burst) {
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            return new Quota(name, intervalNanos, intervalNanos * (Math.max(burst, 1) - 1));
+        }
+    }
+}
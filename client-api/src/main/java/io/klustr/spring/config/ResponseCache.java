@@ -0,0 +1,257 @@
+package io.klustr.spring.config;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import io.klustr.spring.oauth.CacheOpaqueTokenIntrospector;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.GenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
+import org.springframework.util.FastByteArrayOutputStream;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves {@link CachedResponse} endpoints from memory.
+ * <p>
+ * On a miss the message converter writes the handler's result once into a buffer,
+ * the bytes are stored and then copied to the client. On a hit the stored bytes are
+ * written to the servlet output stream from {@link #preHandle}, neither the
+ * controller nor Jackson run.
+ * <p>
+ * The cache is bounded by the total size of the stored bodies and evicts the least
+ * recently used entries first. Entries of a principal are dropped as soon as
+ * {@link CacheOpaqueTokenIntrospector} invalidates one of its tokens.
+ */
+@ControllerAdvice
+public class ResponseCache implements HandlerInterceptor, ResponseBodyAdvice<Object> {
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+    private static final String PENDING = ResponseCache.class.getName() + ".pending";
+
+    private final Cache<Key, Entry> entries;
+    private final ObjectProvider<RequestMappingHandlerAdapter> adapter;
+
+    private final Map<Method, Optional<CachedResponse>> annotations = new ConcurrentHashMap<>();
+    private final Map<Class<?>, HttpMessageConverter<?>> converters = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter tokenEvictions;
+
+    public ResponseCache(@Value("${web.response-cache.max-size:64MB}") DataSize maxSize,
+                         @Value("${web.response-cache.max-ttl:1h}") Duration maxTtl,
+                         ObjectProvider<RequestMappingHandlerAdapter> adapter,
+                         ObjectProvider<OpaqueTokenIntrospector> introspector,
+                         MeterRegistry registry) {
+        this.adapter = adapter;
+
+        Counter sizeEvictions = Counter.builder("http.server.response.cache.evictions").tag("cause", "size").register(registry);
+        this.entries = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .<Key, Entry>weigher((key, entry) -> entry.body.length)
+                // backstop, each entry also carries the ttl of its endpoint
+                .expireAfterWrite(maxTtl)
+                .removalListener(notification -> {
+                    if (notification.getCause() == RemovalCause.SIZE) {
+                        sizeEvictions.increment();
+                    }
+                })
+                .build();
+
+        this.hits = Counter.builder("http.server.response.cache").tag("result", "hit").register(registry);
+        this.misses = Counter.builder("http.server.response.cache").tag("result", "miss").register(registry);
+        this.tokenEvictions = Counter.builder("http.server.response.cache.evictions").tag("cause", "token").register(registry);
+        Gauge.builder("http.server.response.cache.size", entries, Cache::size).register(registry);
+
+        introspector.ifAvailable(i -> {
+            if (i instanceof CacheOpaqueTokenIntrospector cached) {
+                cached.addInvalidationListener(principal -> evictPrincipal(principal.getName()));
+            }
+        });
+    }
+
+    /**
+     * Drops every response cached for the principal.
+     */
+    public void evictPrincipal(String principal) {
+        if (principal == null) {
+            return;
+        }
+        entries.asMap().keySet().removeIf(key -> {
+            if (principal.equals(key.principal)) {
+                tokenEvictions.increment();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!HttpMethod.GET.matches(request.getMethod()) || !(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+
+        CachedResponse cached = annotations.computeIfAbsent(handlerMethod.getMethod(),
+                m -> Optional.ofNullable(AnnotatedElementUtils.findMergedAnnotation(m, CachedResponse.class))).orElse(null);
+        if (cached == null) {
+            return true;
+        }
+
+        Key key = key(request, handlerMethod.getMethod(), cached.varyBy());
+        if (key == null) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null && entry.expiresAt - now > 0) {
+            hits.increment();
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(entry.contentType);
+            response.setContentLength(entry.body.length);
+            response.getOutputStream().write(entry.body);
+            return false;
+        }
+
+        misses.increment();
+        request.setAttribute(PENDING, new Pending(key, now + cached.unit().toNanos(cached.ttl())));
+        return true;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return returnType.hasMethodAnnotation(CachedResponse.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (body == null
+                || !(request instanceof ServletServerHttpRequest servletRequest)
+                || !(response instanceof ServletServerHttpResponse servletResponse)) {
+            return body;
+        }
+
+        Pending pending = (Pending) servletRequest.getServletRequest().getAttribute(PENDING);
+        if (pending == null || servletResponse.getServletResponse().getStatus() != HttpServletResponse.SC_OK) {
+            return body;
+        }
+
+        HttpMessageConverter<?> converter = converter(selectedConverterType);
+        if (converter == null) {
+            return body;
+        }
+
+        try {
+            BufferedOutputMessage buffered = new BufferedOutputMessage();
+            if (converter instanceof GenericHttpMessageConverter<?> generic) {
+                ((GenericHttpMessageConverter<Object>) generic).write(body, returnType.getGenericParameterType(), selectedContentType, buffered);
+            } else {
+                ((HttpMessageConverter<Object>) converter).write(body, selectedContentType, buffered);
+            }
+
+            MediaType contentType = Optional.ofNullable(buffered.getHeaders().getContentType()).orElse(selectedContentType);
+            byte[] bytes = buffered.body.toByteArrayUnsafe();
+            entries.put(pending.key, new Entry(bytes, contentType.toString(), pending.expiresAt));
+
+            response.getHeaders().setContentType(contentType);
+            response.getHeaders().setContentLength(bytes.length);
+            response.getBody().write(bytes);
+            // already written, nothing left for the converter to do
+            return null;
+        } catch (IOException e) {
+            log.warn("Unable to cache response of {}", returnType.getMethod(), e);
+            return body;
+        }
+    }
+
+    private HttpMessageConverter<?> converter(Class<?> type) {
+        return converters.computeIfAbsent(type, t -> {
+            RequestMappingHandlerAdapter a = adapter.getIfUnique();
+            if (a == null) {
+                return null;
+            }
+            return a.getMessageConverters().stream().filter(c -> c.getClass() == t).findFirst().orElse(null);
+        });
+    }
+
+    private static Key key(HttpServletRequest request, Method method, CachedResponse.VaryBy varyBy) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return null;
+        }
+
+        // the authorities are always part of the key, a hit skips @PreAuthorize
+        String authorities = authentication.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .sorted()
+                .reduce((a, b) -> a + " " + b)
+                .orElse("");
+
+        String principal = varyBy == CachedResponse.VaryBy.PRINCIPAL ? authentication.getName() : null;
+        String uri = request.getQueryString() == null ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+        return new Key(method, uri, request.getHeader(HttpHeaders.ACCEPT), principal, authorities);
+    }
+
+    private record Key(Method method, String uri, String accept, String principal, String authorities) {
+    }
+
+    private record Pending(Key key, long expiresAt) {
+    }
+
+    private record Entry(byte[] body, String contentType, long expiresAt) {
+    }
+
+    private static class BufferedOutputMessage implements HttpOutputMessage {
+        private final HttpHeaders headers = new HttpHeaders();
+        private final FastByteArrayOutputStream body = new FastByteArrayOutputStream(1024);
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}
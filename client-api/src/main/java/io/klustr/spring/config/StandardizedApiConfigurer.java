@@ -1,62 +1,195 @@
 package io.klustr.spring.config;
 
-import com.google.common.collect.Lists;
 import io.klustr.spring.U;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springdoc.core.models.GroupedOpenApi;
+import org.springdoc.webmvc.api.MultipleOpenApiWebMvcResource;
+import org.springdoc.webmvc.api.OpenApiWebMvcResource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.Ordered;
 import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
-import org.springframework.web.cors.CorsConfiguration;
-import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
-import org.springframework.web.filter.CorsFilter;
-import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.PathMatchConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfoHandlerMapping;
 
+import java.time.Duration;
 import java.util.List;
 
 
 @Configuration
 public class StandardizedApiConfigurer implements WebMvcConfigurer {
 
+    /**
+     * Whether {@code /path/} is handled like {@code /path}. Request matchers working
+     * outside of Spring MVC, like a {@link PathTrieRequestMatcher}, must follow it.
+     */
+    public static final boolean TRAILING_SLASH_MATCH = true;
+
+    private final OperationMetrics operationMetrics;
+    private final ResponseCache responseCache;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${web.rate-limit.enabled:false}")
+    boolean rateLimitEnabled;
+
+    @Value("${web.rate-limit.permits-per-second:50}")
+    double rateLimitPermitsPerSecond;
+
+    @Value("${web.rate-limit.burst:100}")
+    int rateLimitBurst;
+
+    @Value("${web.rate-limit.max-principals:100000}")
+    long rateLimitMaxPrincipals;
+
+    @Value("${web.rate-limit.idle-eviction:10m}")
+    Duration rateLimitIdleEviction;
+
+    @Value("${web.response-cache.enabled:true}")
+    boolean responseCacheEnabled;
+
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    public StandardizedApiConfigurer(OperationMetrics operationMetrics, ResponseCache responseCache, MeterRegistry meterRegistry) {
+        this.operationMetrics = operationMetrics;
+        this.responseCache = responseCache;
+        this.meterRegistry = meterRegistry;
+    }
 
     @Override
     public void configurePathMatch(PathMatchConfigurer configurer) {
-        configurer = configurer.setUseTrailingSlashMatch(true);
+        configurer = configurer.setUseTrailingSlashMatch(TRAILING_SLASH_MATCH);
         WebMvcConfigurer.super.configurePathMatch(configurer);
     }
 
-    @Override
-    public void addCorsMappings(CorsRegistry registry) {
-        registry
-                .addMapping("/**")
-                .allowedOriginPatterns("*")
-                .allowedMethods("HEAD", "GET", "POST", "PUT", "DELETE", "PATCH", "OPTIONS");
+    /**
+     * Ensures that our cors configuration is configured to the top of the queue. This
+     * is the only CORS handling, Spring MVC is not given any mappings of its own.
+     *
+     * @return The {@link FilterRegistrationBean} with a {@link StandardizedCorsFilter} applied.
+     */
+    @Bean
+    FilterRegistrationBean<StandardizedCorsFilter> corsConfigurationSource(@Value("${web.cors.allowed-origins:*}") List<String> allowedOrigins,
+                                                                           @Value("${web.cors.allowed-methods:HEAD,GET,POST,PUT,DELETE,PATCH,OPTIONS}") List<String> allowedMethods,
+                                                                           @Value("${web.cors.max-age:3600}") long maxAge,
+                                                                           @Value("${web.cors.allow-credentials:true}") boolean allowCredentials,
+                                                                           @Value("${web.cors.exposed-headers:ETag,Retry-After,X-Next-Cursor}") List<String> exposedHeaders) {
+        StandardizedCorsFilter filter = new StandardizedCorsFilter(allowedOrigins, allowedMethods, maxAge, allowCredentials, exposedHeaders);
+        FilterRegistrationBean<StandardizedCorsFilter> bean = new FilterRegistrationBean<>(filter);
+        bean.setOrder(Ordered.HIGHEST_PRECEDENCE);  // fix issue where CORS is put behind auth
+        return bean;
     }
 
     /**
-     * Ensures that our cors configuration is configured to the top of the queue.
+     * Compresses responses above {@code web.compression.min-size} bytes, right after
+     * CORS so everything below it, including the ETag filter, works on identity bytes.
      *
-     * @return The {@link FilterRegistrationBean} with a {@link CorsFilter} applied.
+     * @return The {@link FilterRegistrationBean} with a {@link CompressionFilter} applied.
      */
     @Bean
-    FilterRegistrationBean<CorsFilter> corsConfigurationSource() {
-        CorsConfiguration configuration = new CorsConfiguration();
-        configuration.setAllowedOriginPatterns(Lists.newArrayList("*"));
-        configuration.addAllowedHeader("*");
-        configuration.addAllowedMethod("*");
-        configuration.setAllowCredentials(true);
+    FilterRegistrationBean<CompressionFilter> compressionFilter(@Value("${web.compression.enabled:true}") boolean enabled,
+                                                                @Value("${web.compression.min-size:2048}") int minSize,
+                                                                @Value("${web.compression.level:6}") int level,
+                                                                @Value("${web.compression.mime-types:text/*,application/json,application/*+json,application/xml,application/yaml,application/x-ndjson}") List<String> mimeTypes,
+                                                                MeterRegistry registry) {
+        FilterRegistrationBean<CompressionFilter> bean = new FilterRegistrationBean<>(new CompressionFilter(minSize, level, mimeTypes, registry));
+        bean.setEnabled(enabled);
+        bean.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return bean;
+    }
 
-        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
-        source.registerCorsConfiguration("/**", configuration);
+    /**
+     * Hashes GET responses into an ETag and answers If-None-Match with a 304. It is
+     * ordered after the security filters so only authorized callers see a tag.
+     *
+     * @return The {@link FilterRegistrationBean} with a {@link ETagFilter} applied.
+     */
+    @Bean
+    FilterRegistrationBean<ETagFilter> etagFilter(@Value("${web.etag.enabled:true}") boolean enabled,
+                                                  @Value("${web.etag.all-endpoints:true}") boolean allEndpoints) {
+        FilterRegistrationBean<ETagFilter> bean = new FilterRegistrationBean<>(new ETagFilter(allEndpoints));
+        bean.setEnabled(enabled);
+        bean.setOrder(Ordered.LOWEST_PRECEDENCE);
+        return bean;
+    }
 
-        FilterRegistrationBean<CorsFilter> bean = new FilterRegistrationBean<>(new CorsFilter(source));
-        bean.setOrder(Ordered.HIGHEST_PRECEDENCE);  // fix issue where CORS is put behind auth
+    /**
+     * @return The {@link ApiDocsCacheFilter}, rendering the documents for
+     * {@code web.api-docs-cache.server-url}, this server on localhost by default.
+     */
+    @Bean
+    ApiDocsCacheFilter apiDocsCache(@Value("${springdoc.api-docs.path:/v3/api-docs}") String apiDocsPath,
+                                    @Value("${web.api-docs-cache.server-url:http://localhost:${server.port:8080}${server.servlet.context-path:}}") String serverUrl,
+                                    ObjectProvider<OpenApiWebMvcResource> openApi,
+                                    ObjectProvider<MultipleOpenApiWebMvcResource> groupedOpenApi,
+                                    ObjectProvider<GroupedOpenApi> groups) {
+        return new ApiDocsCacheFilter(apiDocsPath, serverUrl, openApi, groupedOpenApi, groups);
+    }
+
+    /**
+     * Serves the rendered OpenAPI documents from memory. It is ordered after the
+     * security filters so protected documents stay protected.
+     *
+     * @return The {@link FilterRegistrationBean} with the {@link ApiDocsCacheFilter} applied.
+     */
+    @Bean
+    FilterRegistrationBean<ApiDocsCacheFilter> apiDocsCacheFilter(ApiDocsCacheFilter apiDocsCache,
+                                                                  @Value("${web.api-docs-cache.enabled:true}") boolean enabled) {
+        FilterRegistrationBean<ApiDocsCacheFilter> bean = new FilterRegistrationBean<>(apiDocsCache);
+        bean.setEnabled(enabled);
+        bean.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 1);
+        return bean;
+    }
+
+    /**
+     * Stamps the start of a request for {@link OperationMetrics}, just ahead of the
+     * security filters so the auth phase includes token introspection.
+     *
+     * @return The {@link FilterRegistrationBean} with the timing filter applied.
+     */
+    @Bean
+    FilterRegistrationBean<OncePerRequestFilter> operationTimingFilter() {
+        FilterRegistrationBean<OncePerRequestFilter> bean = new FilterRegistrationBean<>(operationMetrics.startFilter());
+        bean.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
         return bean;
     }
 
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(operationMetrics);
+        if (rateLimitEnabled) {
+            rateLimitInterceptor = new RateLimitInterceptor(rateLimitPermitsPerSecond, rateLimitBurst, rateLimitMaxPrincipals, rateLimitIdleEviction, meterRegistry);
+            registry.addInterceptor(rateLimitInterceptor);
+        }
+        if (responseCacheEnabled) {
+            // after the rate limit, a cached response still counts against the quota
+            registry.addInterceptor(responseCache);
+        }
+    }
+
+    /**
+     * Resolves the rate limit of every endpoint at startup, so endpoints sharing a
+     * bucket with different {@link RateLimit}s fail the start rather than a request.
+     */
+    @EventListener
+    public void registerRateLimits(ContextRefreshedEvent event) {
+        if (rateLimitInterceptor != null) {
+            event.getApplicationContext().getBeansOfType(RequestMappingInfoHandlerMapping.class).values()
+                    .forEach(mapping -> rateLimitInterceptor.register(mapping.getHandlerMethods().values()));
+        }
+    }
+
     @Override
     public void configureMessageConverters(List<HttpMessageConverter<?>> converters) {
         final MappingJackson2HttpMessageConverter converter = new MappingJackson2HttpMessageConverter();
@@ -64,4 +197,24 @@ public class StandardizedApiConfigurer implements WebMvcConfigurer {
         converters.add(converter);
         WebMvcConfigurer.super.configureMessageConverters(converters);
     }
+
+    /**
+     * Service callers can ask for {@code application/x-jackson-smile} or
+     * {@code application/cbor} to skip text encoding on internal hops, JSON stays the
+     * default for browsers and any caller that accepts all media types. Spring already
+     * registers binary converters ahead of ours, they are swapped in place for ones
+     * sharing the {@link U} mapper configuration.
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.removeIf(c -> c instanceof MappingJackson2SmileHttpMessageConverter || c instanceof MappingJackson2CborHttpMessageConverter);
+        int json = 0;
+        while (json < converters.size() && !(converters.get(json) instanceof MappingJackson2HttpMessageConverter)) {
+            json++;
+        }
+        int at = Math.min(json + 1, converters.size());
+        converters.add(at, new MappingJackson2CborHttpMessageConverter(U.getCborObjectMapper()));
+        converters.add(at, new MappingJackson2SmileHttpMessageConverter(U.getSmileObjectMapper()));
+        WebMvcConfigurer.super.extendMessageConverters(converters);
+    }
 }
@@ -0,0 +1,139 @@
+package io.klustr.spring.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.CorsUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The single place CORS is handled, for every path.
+ * <p>
+ * Requests without an {@code Origin} header (same origin navigation, service to
+ * service calls) are let through on a header lookup, no path matching or
+ * {@link CorsConfiguration} is involved. Preflights are answered here with header
+ * values computed once at startup, including {@code Access-Control-Max-Age} so
+ * browsers cache them instead of sending an OPTIONS before every call.
+ * <p>
+ * Browsers only let scripts read the CORS-safelisted response headers, any other
+ * header a client needs, such as {@code ETag} or {@code Retry-After}, has to be listed
+ * in {@code Access-Control-Expose-Headers} on the actual response.
+ */
+public class StandardizedCorsFilter extends OncePerRequestFilter {
+
+    private static final String VARY = String.join(", ",
+            HttpHeaders.ORIGIN,
+            HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD,
+            HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS);
+
+    private static final byte[] INVALID = "Invalid CORS request".getBytes(StandardCharsets.UTF_8);
+
+    private final boolean anyOrigin;
+    private final CorsConfiguration origins;
+    private final boolean allowCredentials;
+
+    private final Set<String> methods;
+    private final String allowMethods;
+    private final String maxAge;
+    private final String exposeHeaders;
+
+    /**
+     * @param allowedOrigins   Origin patterns, {@code *} allows any origin.
+     * @param allowedMethods   The methods a preflight may ask for.
+     * @param maxAge           How long, in seconds, browsers may cache a preflight.
+     * @param allowCredentials Whether cookies and authorization headers are allowed,
+     *                         the requesting origin is echoed back when they are.
+     * @param exposedHeaders   Response headers scripts on another origin may read.
+     */
+    public StandardizedCorsFilter(List<String> allowedOrigins, List<String> allowedMethods, long maxAge, boolean allowCredentials, List<String> exposedHeaders) {
+        this.anyOrigin = allowedOrigins.contains(CorsConfiguration.ALL);
+        this.origins = new CorsConfiguration();
+        this.origins.setAllowedOriginPatterns(allowedOrigins);
+        this.origins.setAllowCredentials(allowCredentials);
+        this.allowCredentials = allowCredentials;
+
+        this.methods = allowedMethods.stream().map(String::trim).map(String::toUpperCase).collect(Collectors.toCollection(LinkedHashSet::new));
+        this.allowMethods = String.join(",", methods);
+        this.maxAge = Long.toString(maxAge);
+        this.exposeHeaders = exposedHeaders.stream().map(String::trim).filter(h -> !h.isEmpty()).collect(Collectors.joining(","));
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getHeader(HttpHeaders.ORIGIN) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        boolean preflight = CorsUtils.isPreFlightRequest(request);
+        if (!preflight && !CorsUtils.isCorsRequest(request)) {
+            // browsers also send Origin on same origin POSTs
+            chain.doFilter(request, response);
+            return;
+        }
+
+        response.addHeader(HttpHeaders.VARY, VARY);
+
+        String allowOrigin = allowOrigin(request.getHeader(HttpHeaders.ORIGIN));
+        if (allowOrigin == null) {
+            reject(response);
+            return;
+        }
+
+        if (preflight) {
+            String method = request.getHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD);
+            if (!methods.contains(method.toUpperCase())) {
+                reject(response);
+                return;
+            }
+
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, allowOrigin);
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, allowMethods);
+            String headers = request.getHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS);
+            if (headers != null) {
+                // every header is allowed, so the requested ones are
+                response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, headers);
+            }
+            if (allowCredentials) {
+                response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+            }
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_MAX_AGE, maxAge);
+            response.setStatus(HttpServletResponse.SC_OK);
+            return;
+        }
+
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, allowOrigin);
+        if (allowCredentials) {
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+        }
+        if (!exposeHeaders.isEmpty()) {
+            response.setHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, exposeHeaders);
+        }
+        chain.doFilter(request, response);
+    }
+
+    private String allowOrigin(String origin) {
+        if (anyOrigin) {
+            // a wildcard is not accepted by browsers alongside credentials
+            return allowCredentials ? origin : CorsConfiguration.ALL;
+        }
+        return origins.checkOrigin(origin);
+    }
+
+    private static void reject(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        response.getOutputStream().write(INVALID);
+        response.flushBuffer();
+    }
+}
@@ -0,0 +1,37 @@
+package io.klustr.spring.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Opt-in virtual thread mode, switched on with {@code spring.threads.virtual.enabled}
+ * and only active on Java 21 or later.
+ * <p>
+ * The same switch makes Spring Boot run the Tomcat protocol handler, the
+ * {@code @Async} executor and the {@code @EnableScheduling} scheduler on virtual
+ * threads, and {@link io.klustr.spring.oauth.OpaqueTokenSecurityConfiguration} move
+ * token introspection onto a JDK {@link java.net.http.HttpClient}. A request blocked
+ * on the introspection endpoint then no longer holds a pooled platform thread. What
+ * is added here is the diagnostics for the one thing that undoes that: a virtual
+ * thread pinned to its carrier inside a {@code synchronized} block.
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadConfiguration {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+    @Bean
+    VirtualThreadPinningMonitor virtualThreadPinningMonitor(@Value("${web.threads.virtual.pinned-threshold:20ms}") Duration threshold,
+                                                            MeterRegistry registry) {
+        log.info("Virtual threads enabled, reporting pinned threads blocked for more than {} ms", threshold.toMillis());
+        return new VirtualThreadPinningMonitor(threshold, registry);
+    }
+}
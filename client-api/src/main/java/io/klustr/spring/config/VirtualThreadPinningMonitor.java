@@ -0,0 +1,123 @@
+package io.klustr.spring.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Listens to the JFR {@code jdk.VirtualThreadPinned} event, raised when a virtual
+ * thread blocks while it cannot unmount from its carrier, typically because it is
+ * inside a {@code synchronized} block or method (e.g. {@link java.security.SecureRandom}
+ * as used by {@link io.klustr.spring.U}).
+ * <p>
+ * Every occurrence is counted in {@code jvm.threads.virtual.pinned}; the stack is
+ * logged once per call site so a hot site does not flood the log. This is the
+ * in-process equivalent of {@code -Djdk.tracePinnedThreads}.
+ */
+public class VirtualThreadPinningMonitor implements SmartLifecycle {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    private static final String PINNED = "jdk.VirtualThreadPinned";
+    private static final int MAX_SITES = 100;
+    private static final int MAX_FRAMES = 20;
+
+    private final Duration threshold;
+    private final Timer pinned;
+    private final Counter pinnedSites;
+
+    private final Set<String> reported = ConcurrentHashMap.newKeySet();
+
+    private volatile RecordingStream stream;
+
+    /**
+     * @param threshold Pinned blocks shorter than this are ignored.
+     * @param registry  Where the pinned counts and durations are published.
+     */
+    public VirtualThreadPinningMonitor(Duration threshold, MeterRegistry registry) {
+        this.threshold = threshold;
+        this.pinned = Timer.builder("jvm.threads.virtual.pinned")
+                .description("Time virtual threads spent blocked while pinned to their carrier")
+                .register(registry);
+        this.pinnedSites = Counter.builder("jvm.threads.virtual.pinned.sites")
+                .description("Distinct call sites seen pinning a virtual thread")
+                .register(registry);
+    }
+
+    @Override
+    public void start() {
+        try {
+            RecordingStream rs = new RecordingStream();
+            rs.enable(PINNED).withThreshold(threshold).withStackTrace();
+            rs.onEvent(PINNED, this::onPinned);
+            rs.startAsync();
+            this.stream = rs;
+        } catch (Exception e) {
+            // JFR can be disabled or unavailable, the application is fine without it
+            log.warn("Unable to monitor pinned virtual threads", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        RecordingStream rs = this.stream;
+        if (rs != null) {
+            rs.close();
+            this.stream = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return stream != null;
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinned.record(event.getDuration());
+
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null) {
+            return;
+        }
+
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        String site = site(frames);
+        if (reported.size() < MAX_SITES && reported.add(site)) {
+            pinnedSites.increment();
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < Math.min(frames.size(), MAX_FRAMES); i++) {
+                sb.append("\n\tat ").append(format(frames.get(i)));
+            }
+            log.warn("Virtual thread pinned for {} ms at {}{}", event.getDuration().toMillis(), site, sb);
+        }
+    }
+
+    /**
+     * The first frame outside the JDK, which is where the pinning lock is held.
+     */
+    private static String site(List<RecordedFrame> frames) {
+        for (RecordedFrame frame : frames) {
+            String type = frame.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return format(frame);
+            }
+        }
+        return frames.isEmpty() ? "unknown" : format(frames.get(0));
+    }
+
+    private static String format(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
@@ -0,0 +1,107 @@
+package io.klustr.spring.health;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a {@link HealthProbe} on a schedule and answers {@link #health()} with the last
+ * result, so a health poll never waits on the network and costs a volatile read.
+ * <p>
+ * A probe that does not answer within the timeout is reported down. It is not started
+ * again until the hung call returns, so a dead dependency holds at most one thread.
+ */
+public class CachedHealthIndicator implements HealthIndicator, SmartLifecycle {
+
+    private final HealthProbe probe;
+    private final ScheduledExecutorService scheduler;
+    private final Executor workers;
+    private final Duration interval;
+    private final Duration timeout;
+
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile Health last = Health.unknown().withDetail("reason", "not probed yet").build();
+    private volatile ScheduledFuture<?> task;
+
+    /**
+     * @param probe     The check.
+     * @param scheduler Triggers the probe, never runs it.
+     * @param workers   Runs the probe.
+     * @param interval  Time between the end of a probe and the start of the next.
+     * @param timeout   How long a probe may take before it is reported down.
+     */
+    public CachedHealthIndicator(HealthProbe probe, ScheduledExecutorService scheduler, Executor workers, Duration interval, Duration timeout) {
+        this.probe = probe;
+        this.scheduler = scheduler;
+        this.workers = workers;
+        this.interval = interval;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public Health health() {
+        return last;
+    }
+
+    /**
+     * Starts a probe unless one is still running.
+     */
+    public void refresh() {
+        if (!probing.compareAndSet(false, true)) {
+            return;
+        }
+
+        Instant checked = Instant.now();
+        CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        return probe.probe();
+                    } catch (Exception e) {
+                        return Health.down(e).build();
+                    } finally {
+                        probing.set(false);
+                    }
+                }, workers)
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((health, error) -> {
+                    if (error instanceof TimeoutException) {
+                        health = Health.down().withDetail("error", "no answer within " + timeout.toMillis() + "ms").build();
+                    } else if (error != null) {
+                        health = Health.down().withException(error).build();
+                    }
+                    last = Health.status(health.getStatus())
+                            .withDetails(health.getDetails())
+                            .withDetail("checked", checked.toString())
+                            .build();
+                });
+    }
+
+    @Override
+    public void start() {
+        task = scheduler.scheduleWithFixedDelay(this::refresh, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        ScheduledFuture<?> t = task;
+        if (t != null) {
+            t.cancel(false);
+            task = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return task != null;
+    }
+}
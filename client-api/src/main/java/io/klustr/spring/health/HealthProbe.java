@@ -0,0 +1,19 @@
+package io.klustr.spring.health;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+/**
+ * A check that may be slow or block, run in the background by a {@link CachedHealthIndicator}.
+ */
+@FunctionalInterface
+public interface HealthProbe {
+
+    /**
+     * Working, but slow enough that callers will notice. Mapped to a 200 so the instance
+     * keeps receiving traffic.
+     */
+    Status DEGRADED = new Status("DEGRADED");
+
+    Health probe() throws Exception;
+}
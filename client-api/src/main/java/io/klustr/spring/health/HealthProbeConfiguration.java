@@ -0,0 +1,78 @@
+package io.klustr.spring.health;
+
+import io.klustr.spring.oauth.CacheOpaqueTokenIntrospector;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Health indicators for what the service depends on to answer a request: the token
+ * introspection endpoint, the introspection cache and the request threads.
+ * <p>
+ * Checking these on every call to the health endpoint would make each poll wait on the
+ * network, and a slow introspection endpoint would turn into failing probes and
+ * restarts. They are checked in the background instead, every {@code web.health.interval},
+ * and the endpoint reports the last result. The indicators belong in the readiness
+ * group only, a dependency being slow is no reason to restart the process.
+ */
+@Configuration
+public class HealthProbeConfiguration {
+
+    @Value("${web.health.interval:10s}")
+    Duration interval;
+
+    @Value("${web.health.timeout:5s}")
+    Duration timeout;
+
+    @Bean(destroyMethod = "shutdownNow")
+    ScheduledExecutorService healthProbeScheduler() {
+        CustomizableThreadFactory threads = new CustomizableThreadFactory("health-scheduler-");
+        threads.setDaemon(true);
+        return Executors.newSingleThreadScheduledExecutor(threads);
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    ExecutorService healthProbeWorkers() {
+        // at most one thread per indicator, CachedHealthIndicator never overlaps its probes
+        CustomizableThreadFactory threads = new CustomizableThreadFactory("health-probe-");
+        threads.setDaemon(true);
+        return Executors.newCachedThreadPool(threads);
+    }
+
+    @Bean
+    CachedHealthIndicator introspectionHealthIndicator(OpaqueTokenIntrospector introspector,
+                                                       @Value("${web.health.introspection.degraded-latency:500ms}") Duration degradedLatency) {
+        return cached(new IntrospectionHealthProbe(introspector, degradedLatency));
+    }
+
+    @Bean
+    CachedHealthIndicator tokenCacheHealthIndicator(OpaqueTokenIntrospector introspector,
+                                                    @Value("${web.health.token-cache.max-entries:100000}") long maxEntries) {
+        if (introspector instanceof CacheOpaqueTokenIntrospector cache) {
+            return cached(new TokenCacheHealthProbe(cache, maxEntries));
+        }
+        return cached(() -> Health.unknown().withDetail("reason", "introspection results are not cached").build());
+    }
+
+    @Bean
+    CachedHealthIndicator threadsHealthIndicator(ApplicationContext context, Environment environment,
+                                                 @Value("${web.health.threads.degraded-ratio:0.8}") double degradedRatio,
+                                                 @Value("${web.health.threads.degraded-delay:50ms}") Duration degradedDelay) {
+        return cached(new ThreadsHealthProbe(context, Threading.VIRTUAL.isActive(environment), degradedRatio, degradedDelay));
+    }
+
+    private CachedHealthIndicator cached(HealthProbe probe) {
+        return new CachedHealthIndicator(probe, healthProbeScheduler(), healthProbeWorkers(), interval, timeout);
+    }
+}
@@ -0,0 +1,60 @@
+package io.klustr.spring.health;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.security.oauth2.server.resource.introspection.BadOpaqueTokenException;
+import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
+
+import java.time.Duration;
+
+/**
+ * Checks the token introspection endpoint answers, and how fast, by asking it about a
+ * token that cannot be active. Every request waits on this endpoint for tokens not yet
+ * cached, so its latency is the latency of the service.
+ */
+public class IntrospectionHealthProbe implements HealthProbe {
+
+    private static final String PROBE_TOKEN = "health-probe";
+
+    // weight of the newest measurement, one slow answer should not flip the state
+    private static final double SMOOTHING = 0.3;
+
+    private final OpaqueTokenIntrospector introspector;
+    private final Duration degradedLatency;
+
+    private double averageMillis = -1;
+
+    /**
+     * @param introspector    The introspector requests are authenticated with.
+     * @param degradedLatency Average answer time above which the endpoint is reported degraded.
+     */
+    public IntrospectionHealthProbe(OpaqueTokenIntrospector introspector, Duration degradedLatency) {
+        this.introspector = introspector;
+        this.degradedLatency = degradedLatency;
+    }
+
+    @Override
+    public Health probe() {
+        long start = System.nanoTime();
+        try {
+            introspector.introspect(PROBE_TOKEN);
+        } catch (BadOpaqueTokenException expected) {
+            // the endpoint answered that the token is not active
+        }
+        return record((System.nanoTime() - start) / 1_000_000d);
+    }
+
+    /**
+     * Folds an answer time into the average and reports on both.
+     */
+    Health record(double millis) {
+        // only ever called by one thread at a time, see CachedHealthIndicator
+        averageMillis = averageMillis < 0 ? millis : SMOOTHING * millis + (1 - SMOOTHING) * averageMillis;
+
+        Health.Builder health = averageMillis > degradedLatency.toMillis() ? Health.status(DEGRADED) : Health.up();
+        return health
+                .withDetail("latencyMs", Math.round(millis))
+                .withDetail("averageLatencyMs", Math.round(averageMillis))
+                .withDetail("degradedLatencyMs", degradedLatency.toMillis())
+                .build();
+    }
+}
@@ -0,0 +1,101 @@
+package io.klustr.spring.health;
+
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports whether the server can still take on requests.
+ * <p>
+ * With a pool of platform threads that is the share of busy request threads: degraded
+ * past the threshold, out of service once every thread is busy and requests queue. With
+ * virtual threads there is no pool to run out of, but the carrier threads can all be
+ * busy or pinned; that shows as the delay before a new virtual thread gets to run.
+ */
+public class ThreadsHealthProbe implements HealthProbe {
+
+    private final ApplicationContext context;
+    private final double degradedRatio;
+    private final Duration degradedDelay;
+
+    private final VirtualThreadTaskExecutor virtualThreads;
+
+    /**
+     * @param context       The web server application context.
+     * @param virtual       Whether requests run on virtual threads.
+     * @param degradedRatio Share of busy request threads above which the server is degraded.
+     * @param degradedDelay Virtual thread start delay above which the server is degraded.
+     */
+    public ThreadsHealthProbe(ApplicationContext context, boolean virtual, double degradedRatio, Duration degradedDelay) {
+        this.context = context;
+        this.degradedRatio = degradedRatio;
+        this.degradedDelay = degradedDelay;
+        this.virtualThreads = virtual ? new VirtualThreadTaskExecutor("health-probe-") : null;
+    }
+
+    @Override
+    public Health probe() throws InterruptedException {
+        if (virtualThreads != null) {
+            return probeVirtual();
+        }
+
+        if (!(requestExecutor() instanceof ThreadPoolExecutor pool)) {
+            return Health.unknown().withDetail("reason", "no Tomcat request thread pool").build();
+        }
+
+        int busy = pool.getActiveCount();
+        int max = pool.getMaximumPoolSize();
+        double ratio = (double) busy / max;
+
+        Health.Builder health;
+        if (busy >= max && !pool.getQueue().isEmpty()) {
+            health = Health.status(Status.OUT_OF_SERVICE);
+        } else if (ratio > degradedRatio) {
+            health = Health.status(DEGRADED);
+        } else {
+            health = Health.up();
+        }
+        return health
+                .withDetail("busy", busy)
+                .withDetail("max", max)
+                .withDetail("queued", pool.getQueue().size())
+                .build();
+    }
+
+    private Health probeVirtual() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        long[] startedAt = new long[1];
+        long submitted = System.nanoTime();
+        virtualThreads.execute(() -> {
+            startedAt[0] = System.nanoTime();
+            started.countDown();
+        });
+        // the indicator times the probe out, this only keeps the thread from waiting forever
+        if (!started.await(1, TimeUnit.MINUTES)) {
+            return Health.down().withDetail("error", "virtual thread did not start").build();
+        }
+
+        long delayMicros = (startedAt[0] - submitted) / 1_000;
+        Health.Builder health = delayMicros > degradedDelay.toNanos() / 1_000 ? Health.status(DEGRADED) : Health.up();
+        return health
+                .withDetail("virtual", true)
+                .withDetail("startDelayUs", delayMicros)
+                .build();
+    }
+
+    private Executor requestExecutor() {
+        if (context instanceof WebServerApplicationContext web && web.getWebServer() instanceof TomcatWebServer tomcat) {
+            return tomcat.getTomcat().getConnector().getProtocolHandler().getExecutor();
+        }
+        return null;
+    }
+}
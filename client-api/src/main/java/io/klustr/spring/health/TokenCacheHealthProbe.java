@@ -0,0 +1,39 @@
+package io.klustr.spring.health;
+
+import com.google.common.cache.CacheStats;
+import io.klustr.spring.oauth.CacheOpaqueTokenIntrospector;
+import org.springframework.boot.actuate.health.Health;
+
+/**
+ * Reports how full the introspection result cache is. Past the limit every new token
+ * costs memory for its whole expiry, and a low hit rate means most requests are paying
+ * for a call to the introspection endpoint.
+ */
+public class TokenCacheHealthProbe implements HealthProbe {
+
+    private final CacheOpaqueTokenIntrospector introspector;
+    private final long maxEntries;
+
+    /**
+     * @param introspector The introspector whose cache is watched.
+     * @param maxEntries   Number of cached tokens above which the cache is reported degraded.
+     */
+    public TokenCacheHealthProbe(CacheOpaqueTokenIntrospector introspector, long maxEntries) {
+        this.introspector = introspector;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public Health probe() {
+        long size = introspector.cachedTokens();
+        CacheStats stats = introspector.cacheStats();
+
+        Health.Builder health = size > maxEntries ? Health.status(DEGRADED) : Health.up();
+        return health
+                .withDetail("size", size)
+                .withDetail("maxEntries", maxEntries)
+                .withDetail("hitRate", Math.round(stats.hitRate() * 1000) / 1000d)
+                .withDetail("evictions", stats.evictionCount())
+                .build();
+    }
+}
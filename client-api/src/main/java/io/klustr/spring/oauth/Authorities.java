@@ -0,0 +1,69 @@
+package io.klustr.spring.oauth;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns authority strings, giving each distinct permission or scope a small number so
+ * a principal's authorities fit in a few words of a bitset, see {@link AuthoritySet}.
+ * <p>
+ * The authorities seen come from the introspection endpoint and the {@code @PreAuthorize}
+ * annotations, a few hundred at most. The registry still stops at {@link #MAX_AUTHORITIES}
+ * so a misbehaving endpoint cannot grow it without bound, authorities past that are kept
+ * as plain strings and are checked the slow way.
+ */
+public final class Authorities {
+
+    public static final int MAX_AUTHORITIES = 4096;
+
+    private static final Map<String, InternedAuthority> byName = new ConcurrentHashMap<>();
+
+    // only grows, replaced under the lock, read without it
+    private static volatile InternedAuthority[] byId = new InternedAuthority[64];
+    private static int next;
+
+    private Authorities() {
+    }
+
+    /**
+     * @return The interned authority, or null when the registry is full.
+     */
+    public static InternedAuthority intern(String authority) {
+        InternedAuthority interned = byName.get(authority);
+        if (interned != null) {
+            return interned;
+        }
+
+        synchronized (Authorities.class) {
+            interned = byName.get(authority);
+            if (interned != null || next == MAX_AUTHORITIES) {
+                return interned;
+            }
+
+            InternedAuthority[] ids = byId;
+            if (next == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+            interned = new InternedAuthority(next, authority);
+            ids[next++] = interned;
+            byId = ids;
+            byName.put(authority, interned);
+            return interned;
+        }
+    }
+
+    /**
+     * @return The authority if it was interned before, without interning it.
+     */
+    public static InternedAuthority find(String authority) {
+        return byName.get(authority);
+    }
+
+    /**
+     * @return The authority with the given number.
+     */
+    public static InternedAuthority get(int id) {
+        return byId[id];
+    }
+}
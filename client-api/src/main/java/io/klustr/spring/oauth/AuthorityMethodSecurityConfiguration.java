@@ -0,0 +1,177 @@
+package io.klustr.spring.oauth;
+
+import io.micrometer.observation.ObservationRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Role;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
+import org.springframework.security.authorization.AuthorizationEventPublisher;
+import org.springframework.security.authorization.AuthorizationManager;
+import org.springframework.security.authorization.ObservationAuthorizationManager;
+import org.springframework.security.authorization.method.AuthorizationManagerAfterMethodInterceptor;
+import org.springframework.security.authorization.method.AuthorizationManagerBeforeMethodInterceptor;
+import org.springframework.security.authorization.method.PostAuthorizeAuthorizationManager;
+import org.springframework.security.authorization.method.PostFilterAuthorizationMethodInterceptor;
+import org.springframework.security.authorization.method.PreAuthorizeAuthorizationManager;
+import org.springframework.security.authorization.method.PreFilterAuthorizationMethodInterceptor;
+import org.springframework.security.config.core.GrantedAuthorityDefaults;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolderStrategy;
+import org.springframework.util.function.SingletonSupplier;
+
+import java.util.function.Supplier;
+
+/**
+ * The method security interceptors of {@code @EnableMethodSecurity}, wired the same way
+ * (expression handler, {@link GrantedAuthorityDefaults}, {@link RoleHierarchy},
+ * {@link SecurityContextHolderStrategy}, events and observations), except that
+ * {@code @PreAuthorize} is decided by {@link CompiledPreAuthorizeAuthorizationManager}.
+ * <p>
+ * Imported by {@link EnableAuthorityMethodSecurity} only, it is not a
+ * {@code @Configuration} so that scanning this package does not pick it up. The
+ * authority checks are only compiled while they mean what they say: with a custom
+ * {@link MethodSecurityExpressionHandler} or a {@link RoleHierarchy} bean every
+ * expression goes to SpEL.
+ * <p>
+ * Mirrors {@code PrePostMethodSecurityConfiguration} of Spring Security 6.1
+ * ({@code spring.version} in the parent pom), compare with it when that version moves.
+ */
+final class AuthorityMethodSecurityConfiguration {
+
+    private AuthorityMethodSecurityConfiguration() {
+    }
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static MethodInterceptor preAuthorizeAuthorizationMethodInterceptor(ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+                                                                        ObjectProvider<RoleHierarchy> roleHierarchyProvider,
+                                                                        ObjectProvider<MethodSecurityExpressionHandler> expressionHandlerProvider,
+                                                                        ObjectProvider<SecurityContextHolderStrategy> strategyProvider,
+                                                                        ObjectProvider<AuthorizationEventPublisher> eventPublisherProvider,
+                                                                        ObjectProvider<ObservationRegistry> registryProvider,
+                                                                        ApplicationContext context) {
+        PreAuthorizeAuthorizationManager expressions = new PreAuthorizeAuthorizationManager();
+        expressions.setExpressionHandler(new DeferredExpressionHandler(defaultsProvider, roleHierarchyProvider, expressionHandlerProvider, context));
+        AuthorizationManager<MethodInvocation> manager = deferred(() -> {
+            boolean stock = expressionHandlerProvider.getIfAvailable() == null && roleHierarchyProvider.getIfAvailable() == null;
+            return stock ? new CompiledPreAuthorizeAuthorizationManager(expressions) : expressions;
+        });
+
+        AuthorizationManagerBeforeMethodInterceptor interceptor = AuthorizationManagerBeforeMethodInterceptor.preAuthorize(observed(manager, registryProvider));
+        strategyProvider.ifAvailable(interceptor::setSecurityContextHolderStrategy);
+        eventPublisherProvider.ifAvailable(interceptor::setAuthorizationEventPublisher);
+        return interceptor;
+    }
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static MethodInterceptor postAuthorizeAuthorizationMethodInterceptor(ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+                                                                         ObjectProvider<RoleHierarchy> roleHierarchyProvider,
+                                                                         ObjectProvider<MethodSecurityExpressionHandler> expressionHandlerProvider,
+                                                                         ObjectProvider<SecurityContextHolderStrategy> strategyProvider,
+                                                                         ObjectProvider<AuthorizationEventPublisher> eventPublisherProvider,
+                                                                         ObjectProvider<ObservationRegistry> registryProvider,
+                                                                         ApplicationContext context) {
+        PostAuthorizeAuthorizationManager expressions = new PostAuthorizeAuthorizationManager();
+        expressions.setExpressionHandler(new DeferredExpressionHandler(defaultsProvider, roleHierarchyProvider, expressionHandlerProvider, context));
+
+        AuthorizationManagerAfterMethodInterceptor interceptor = AuthorizationManagerAfterMethodInterceptor.postAuthorize(observed(expressions, registryProvider));
+        strategyProvider.ifAvailable(interceptor::setSecurityContextHolderStrategy);
+        eventPublisherProvider.ifAvailable(interceptor::setAuthorizationEventPublisher);
+        return interceptor;
+    }
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static MethodInterceptor preFilterAuthorizationMethodInterceptor(ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+                                                                     ObjectProvider<RoleHierarchy> roleHierarchyProvider,
+                                                                     ObjectProvider<MethodSecurityExpressionHandler> expressionHandlerProvider,
+                                                                     ObjectProvider<SecurityContextHolderStrategy> strategyProvider,
+                                                                     ApplicationContext context) {
+        PreFilterAuthorizationMethodInterceptor interceptor = new PreFilterAuthorizationMethodInterceptor();
+        strategyProvider.ifAvailable(interceptor::setSecurityContextHolderStrategy);
+        interceptor.setExpressionHandler(new DeferredExpressionHandler(defaultsProvider, roleHierarchyProvider, expressionHandlerProvider, context));
+        return interceptor;
+    }
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    static MethodInterceptor postFilterAuthorizationMethodInterceptor(ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+                                                                      ObjectProvider<RoleHierarchy> roleHierarchyProvider,
+                                                                      ObjectProvider<MethodSecurityExpressionHandler> expressionHandlerProvider,
+                                                                      ObjectProvider<SecurityContextHolderStrategy> strategyProvider,
+                                                                      ApplicationContext context) {
+        PostFilterAuthorizationMethodInterceptor interceptor = new PostFilterAuthorizationMethodInterceptor();
+        strategyProvider.ifAvailable(interceptor::setSecurityContextHolderStrategy);
+        interceptor.setExpressionHandler(new DeferredExpressionHandler(defaultsProvider, roleHierarchyProvider, expressionHandlerProvider, context));
+        return interceptor;
+    }
+
+    // the interceptors are created with the post processors, the beans they use are looked up on the first call
+    private static <T> AuthorizationManager<T> deferred(Supplier<AuthorizationManager<T>> manager) {
+        Supplier<AuthorizationManager<T>> resolved = SingletonSupplier.of(manager);
+        return (authentication, object) -> resolved.get().check(authentication, object);
+    }
+
+    private static <T> AuthorizationManager<T> observed(AuthorizationManager<T> manager, ObjectProvider<ObservationRegistry> registryProvider) {
+        return deferred(() -> {
+            ObservationRegistry registry = registryProvider.getIfUnique(() -> ObservationRegistry.NOOP);
+            return registry.isNoop() ? manager : new ObservationAuthorizationManager<>(registry, manager);
+        });
+    }
+
+    /**
+     * The {@link MethodSecurityExpressionHandler} bean if there is one, else the default
+     * with the role prefix and role hierarchy of the application.
+     */
+    private static final class DeferredExpressionHandler implements MethodSecurityExpressionHandler {
+        private final Supplier<MethodSecurityExpressionHandler> handler;
+
+        DeferredExpressionHandler(ObjectProvider<GrantedAuthorityDefaults> defaultsProvider,
+                                  ObjectProvider<RoleHierarchy> roleHierarchyProvider,
+                                  ObjectProvider<MethodSecurityExpressionHandler> expressionHandlerProvider,
+                                  ApplicationContext context) {
+            this.handler = SingletonSupplier.of(() -> expressionHandlerProvider.getIfAvailable(() -> {
+                DefaultMethodSecurityExpressionHandler handler = new DefaultMethodSecurityExpressionHandler();
+                defaultsProvider.ifAvailable(defaults -> handler.setDefaultRolePrefix(defaults.getRolePrefix()));
+                roleHierarchyProvider.ifAvailable(handler::setRoleHierarchy);
+                handler.setApplicationContext(context);
+                return handler;
+            }));
+        }
+
+        @Override
+        public ExpressionParser getExpressionParser() {
+            return handler.get().getExpressionParser();
+        }
+
+        @Override
+        public EvaluationContext createEvaluationContext(Authentication authentication, MethodInvocation invocation) {
+            return handler.get().createEvaluationContext(authentication, invocation);
+        }
+
+        @Override
+        public EvaluationContext createEvaluationContext(Supplier<Authentication> authentication, MethodInvocation invocation) {
+            return handler.get().createEvaluationContext(authentication, invocation);
+        }
+
+        @Override
+        public Object filter(Object filterTarget, Expression filterExpression, EvaluationContext ctx) {
+            return handler.get().filter(filterTarget, filterExpression, ctx);
+        }
+
+        @Override
+        public void setReturnObject(Object returnObject, EvaluationContext ctx) {
+            handler.get().setReturnObject(returnObject, ctx);
+        }
+    }
+}
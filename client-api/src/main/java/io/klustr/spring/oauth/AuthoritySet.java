@@ -0,0 +1,118 @@
+package io.klustr.spring.oauth;
+
+import com.google.common.collect.ImmutableList;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * An immutable set of authorities backed by a bitset of their {@link Authorities}
+ * numbers, so testing a principal for the authorities an endpoint needs is a few
+ * word-wide ANDs rather than string comparisons.
+ */
+public final class AuthoritySet extends AbstractCollection<GrantedAuthority> implements Serializable {
+
+    public static final AuthoritySet EMPTY = new AuthoritySet(new long[0], ImmutableList.of());
+
+    private final long[] bits;
+    private final ImmutableList<GrantedAuthority> members;
+
+    private AuthoritySet(long[] bits, ImmutableList<GrantedAuthority> members) {
+        this.bits = bits;
+        this.members = members;
+    }
+
+    /**
+     * Interns the authorities, duplicates are dropped.
+     */
+    public static AuthoritySet of(Iterable<String> authorities) {
+        long[] bits = new long[0];
+        ImmutableList.Builder<GrantedAuthority> members = ImmutableList.builder();
+        for (String authority : authorities) {
+            InternedAuthority interned = Authorities.intern(authority);
+            if (interned == null) {
+                // the registry is full, only checked by name
+                members.add(new SimpleGrantedAuthority(authority));
+                continue;
+            }
+            int word = interned.id() >>> 6;
+            if (word >= bits.length) {
+                bits = Arrays.copyOf(bits, word + 1);
+            }
+            if ((bits[word] & (1L << interned.id())) == 0) {
+                bits[word] |= 1L << interned.id();
+                members.add(interned);
+            }
+        }
+        return new AuthoritySet(bits, members.build());
+    }
+
+    /**
+     * The authorities of a principal that did not come from the introspection endpoint.
+     * Only those already interned are kept, the others cannot be required by a compiled check.
+     */
+    static AuthoritySet known(Collection<? extends GrantedAuthority> authorities) {
+        long[] bits = new long[0];
+        for (GrantedAuthority authority : authorities) {
+            InternedAuthority interned = Authorities.find(authority.getAuthority());
+            if (interned != null) {
+                int word = interned.id() >>> 6;
+                if (word >= bits.length) {
+                    bits = Arrays.copyOf(bits, word + 1);
+                }
+                bits[word] |= 1L << interned.id();
+            }
+        }
+        return new AuthoritySet(bits, ImmutableList.of());
+    }
+
+    /**
+     * @return true if every authority of the other set is in this one.
+     */
+    public boolean hasAll(AuthoritySet other) {
+        for (int i = 0; i < other.bits.length; i++) {
+            long have = i < bits.length ? bits[i] : 0;
+            if ((other.bits[i] & ~have) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if at least one authority of the other set is in this one.
+     */
+    public boolean hasAny(AuthoritySet other) {
+        int words = Math.min(bits.length, other.bits.length);
+        for (int i = 0; i < words; i++) {
+            if ((other.bits[i] & bits[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof InternedAuthority interned) {
+            int word = interned.id() >>> 6;
+            return word < bits.length && (bits[word] & (1L << interned.id())) != 0;
+        }
+        return o instanceof GrantedAuthority authority && members.stream().anyMatch(m -> m.getAuthority().equals(authority.getAuthority()));
+    }
+
+    @Override
+    public Iterator<GrantedAuthority> iterator() {
+        return members.iterator();
+    }
+
+    @Override
+    public int size() {
+        return members.size();
+    }
+}
@@ -2,8 +2,8 @@ package io.klustr.spring.oauth;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.collect.ImmutableCollection;
-import com.google.common.collect.ImmutableList;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
 import com.google.common.collect.Lists;
 import net.minidev.json.JSONArray;
 import org.apache.commons.lang3.StringUtils;
@@ -11,15 +11,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpRequest;
 import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
 import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.http.client.support.BasicAuthenticationInterceptor;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.core.OAuth2AuthenticatedPrincipal;
 import org.springframework.security.oauth2.server.resource.introspection.BadOpaqueTokenException;
 import org.springframework.security.oauth2.server.resource.introspection.NimbusOpaqueTokenIntrospector;
-import org.springframework.security.oauth2.server.resource.introspection.OAuth2IntrospectionAuthenticatedPrincipal;
 import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
 import org.springframework.web.client.RestTemplate;
 
@@ -27,8 +26,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * When using token introspection it is important under heavy loads
@@ -47,6 +47,10 @@ public class CacheOpaqueTokenIntrospector implements OpaqueTokenIntrospector {
     // exposed for up to 5 minute.
     private final Cache<String, OAuth2AuthenticatedPrincipal> accessTokens;
 
+    // told when a token is dropped because it expired or was invalidated, so caches
+    // keyed by the principal can follow
+    private final List<Consumer<OAuth2AuthenticatedPrincipal>> invalidationListeners = new CopyOnWriteArrayList<>();
+
     /**
      * Creates a new token introspector with a default of 5 minutes (300 seconds)
      *
@@ -67,7 +71,21 @@ public class CacheOpaqueTokenIntrospector implements OpaqueTokenIntrospector {
      * @param expiryInSeconds The number of seconds we should cache the token introspection result.
      */
     public CacheOpaqueTokenIntrospector(String uri, String clientId, String clientSecret, String apiKey, int expiryInSeconds) {
-        RestTemplate restTemplate = new RestTemplate();
+        this(uri, clientId, clientSecret, apiKey, expiryInSeconds, new SimpleClientHttpRequestFactory());
+    }
+
+    /**
+     * Creates a new token introspector calling the introspection endpoint through the given
+     * request factory, e.g. one backed by a virtual thread {@link java.net.http.HttpClient}.
+     *
+     * @param uri             The URI of the token introspection endpoint
+     * @param clientId        The client ID to use when asking for introspection
+     * @param clientSecret    THe client secret to use when asking for introspection.
+     * @param expiryInSeconds The number of seconds we should cache the token introspection result.
+     * @param requestFactory  The HTTP client used to reach the introspection endpoint.
+     */
+    public CacheOpaqueTokenIntrospector(String uri, String clientId, String clientSecret, String apiKey, int expiryInSeconds, ClientHttpRequestFactory requestFactory) {
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
         if (StringUtils.isNotBlank(clientId)) {
             restTemplate.getInterceptors().add(new BasicAuthenticationInterceptor(clientId, clientSecret));
         }
@@ -79,9 +97,42 @@ public class CacheOpaqueTokenIntrospector implements OpaqueTokenIntrospector {
         this.accessTokens = CacheBuilder.newBuilder()
                 .expireAfterWrite(Duration.ofSeconds(expiryInSeconds))
                 .recordStats()
+                .<String, OAuth2AuthenticatedPrincipal>removalListener(notification -> {
+                    if (notification.getCause() == RemovalCause.EXPLICIT && notification.getValue() != null) {
+                        invalidationListeners.forEach(listener -> listener.accept(notification.getValue()));
+                    }
+                })
                 .build();
     }
 
+    /**
+     * Registers a listener called with the principal of every token that is invalidated.
+     */
+    public void addInvalidationListener(Consumer<OAuth2AuthenticatedPrincipal> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * Forgets the introspection result of a token, e.g. on logout.
+     */
+    public void invalidate(String token) {
+        accessTokens.invalidate(token);
+    }
+
+    /**
+     * The number of cached introspection results, including expired ones not yet cleaned up.
+     */
+    public long cachedTokens() {
+        return accessTokens.size();
+    }
+
+    /**
+     * Hit and eviction counts of the introspection result cache since it was created.
+     */
+    public CacheStats cacheStats() {
+        return accessTokens.stats();
+    }
+
     private static class ApiKeyInterceptor implements ClientHttpRequestInterceptor {
 
         private final String apiKey;
@@ -103,10 +154,8 @@ public class CacheOpaqueTokenIntrospector implements OpaqueTokenIntrospector {
         try {
             OAuth2AuthenticatedPrincipal principal = accessTokens.getIfPresent(token);
             if (principal == null) {
-                principal = introspector.introspect(token);
-                if (principal != null) {
-                    accessTokens.put(token, principal);
-                } else {
+                principal = load(token);
+                if (principal == null) {
                     return null;
                 }
             }
@@ -116,11 +165,11 @@ public class CacheOpaqueTokenIntrospector implements OpaqueTokenIntrospector {
                 Instant expiry = (Instant) expiry_obj;
                 if (expiry.isBefore(Instant.now())) {
                     accessTokens.invalidate(token);
-                    principal = introspector.introspect(token);
+                    principal = load(token);
                 }
             }
 
-            return new OAuth2IntrospectionAuthenticatedPrincipal(principal.getAttributes(), new PermissionExtractor(principal).getAuthorities());
+            return principal;
         } catch (BadOpaqueTokenException ex) {
             throw ex;
         } catch (Exception ex) {
@@ -128,30 +177,37 @@ public class CacheOpaqueTokenIntrospector implements OpaqueTokenIntrospector {
         }
     }
 
+    // the principal is built once per token, with its authorities interned
+    private OAuth2AuthenticatedPrincipal load(String token) {
+        OAuth2AuthenticatedPrincipal introspected = introspector.introspect(token);
+        if (introspected == null) {
+            return null;
+        }
+        IntrospectedPrincipal principal = new IntrospectedPrincipal(introspected.getAttributes(), new PermissionExtractor(introspected).getAuthorities());
+        accessTokens.put(token, principal);
+        return principal;
+    }
+
     private static class PermissionExtractor {
 
-        private final ImmutableCollection<GrantedAuthority> authorities;
+        private final AuthoritySet authorities;
 
         public PermissionExtractor(OAuth2AuthenticatedPrincipal wrap) {
             // extensions has permissions
-            List<GrantedAuthority> auth = Lists.newArrayList();
+            List<String> auth = Lists.newArrayList();
             Object ext = wrap.getAttribute("ext");
             if (ext != null) {
-                ;
                 net.minidev.json.JSONObject map = (net.minidev.json.JSONObject) ext;
                 if (map.get("permissions") != null) {
                     JSONArray permissions = (JSONArray) map.get("permissions");
-                    List<SimpleGrantedAuthority> list = permissions.stream().map(x -> {
-                        return new SimpleGrantedAuthority(x.toString());
-                    }).toList();
-                    auth.addAll(list);
+                    permissions.forEach(x -> auth.add(x.toString()));
                 }
             }
-            auth.addAll(wrap.getAuthorities());
-            this.authorities = ImmutableList.copyOf(auth);
+            wrap.getAuthorities().forEach(x -> auth.add(x.getAuthority()));
+            this.authorities = AuthoritySet.of(auth);
         }
 
-        public Collection<GrantedAuthority> getAuthorities() {
+        public AuthoritySet getAuthorities() {
             return this.authorities;
         }
     }
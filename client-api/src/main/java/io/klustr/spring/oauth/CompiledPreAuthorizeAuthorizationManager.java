@@ -0,0 +1,75 @@
+package io.klustr.spring.oauth;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.MethodClassKey;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.server.resource.authentication.BearerTokenAuthentication;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Decides {@code @PreAuthorize} without SpEL when the expression only checks authorities,
+ * see {@link PreAuthorizeRequirement}. Each method's expression is compiled on its first
+ * call; from then on a call is a map lookup and a bitmask test against the
+ * {@link AuthoritySet} of the {@link IntrospectedPrincipal}. Other expressions are
+ * handed to the given manager, normally Spring's {@code PreAuthorizeAuthorizationManager}.
+ */
+public class CompiledPreAuthorizeAuthorizationManager implements AuthorizationManager<MethodInvocation> {
+
+    private static final AuthorizationDecision GRANTED = new AuthorizationDecision(true);
+    private static final AuthorizationDecision DENIED = new AuthorizationDecision(false);
+
+    private final AuthorizationManager<MethodInvocation> fallback;
+    private final Map<MethodClassKey, Check> checks = new ConcurrentHashMap<>();
+
+    public CompiledPreAuthorizeAuthorizationManager(AuthorizationManager<MethodInvocation> fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public AuthorizationDecision check(Supplier<Authentication> authentication, MethodInvocation invocation) {
+        Method method = invocation.getMethod();
+        Class<?> targetClass = invocation.getThis() != null ? AopUtils.getTargetClass(invocation.getThis()) : null;
+        return checks.computeIfAbsent(new MethodClassKey(method, targetClass), key -> compile(method, targetClass))
+                .check(authentication, invocation);
+    }
+
+    private Check compile(Method method, Class<?> targetClass) {
+        // found the same way as PreAuthorizeAuthorizationManager, on the method then on the class
+        Method specific = AopUtils.getMostSpecificMethod(method, targetClass);
+        PreAuthorize preAuthorize = AnnotatedElementUtils.findMergedAnnotation(specific, PreAuthorize.class);
+        if (preAuthorize == null) {
+            preAuthorize = AnnotatedElementUtils.findMergedAnnotation(targetClass != null ? targetClass : specific.getDeclaringClass(), PreAuthorize.class);
+        }
+        if (preAuthorize == null) {
+            return (authentication, invocation) -> null;
+        }
+
+        PreAuthorizeRequirement requirement = PreAuthorizeRequirement.compile(preAuthorize.value());
+        if (requirement == null) {
+            return fallback::check;
+        }
+        return (authentication, invocation) -> requirement.test(authorities(authentication.get())) ? GRANTED : DENIED;
+    }
+
+    private static AuthoritySet authorities(Authentication authentication) {
+        // a bearer token authentication is given the authorities of its principal
+        if (authentication instanceof BearerTokenAuthentication && authentication.getPrincipal() instanceof IntrospectedPrincipal principal) {
+            return principal.authorities();
+        }
+        return AuthoritySet.known(authentication.getAuthorities());
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        AuthorizationDecision check(Supplier<Authentication> authentication, MethodInvocation invocation);
+    }
+}
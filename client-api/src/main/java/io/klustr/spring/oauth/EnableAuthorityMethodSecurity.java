@@ -0,0 +1,28 @@
+package io.klustr.spring.oauth;
+
+import org.springframework.context.annotation.Import;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Decides {@code @PreAuthorize} authority checks with compiled bitmasks instead of SpEL,
+ * see {@link CompiledPreAuthorizeAuthorizationManager}. Put it next to
+ * {@code @EnableMethodSecurity} with its own pre/post interceptors turned off, this
+ * registers them instead:
+ * <pre>
+ * &#64;EnableMethodSecurity(prePostEnabled = false)
+ * &#64;EnableAuthorityMethodSecurity
+ * </pre>
+ * Left with {@code prePostEnabled = true} both register the same bean names, which fails
+ * startup where bean definition overriding is off, as it is in Spring Boot.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Import(AuthorityMethodSecurityConfiguration.class)
+public @interface EnableAuthorityMethodSecurity {
+}
@@ -0,0 +1,43 @@
+package io.klustr.spring.oauth;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import java.io.Serial;
+
+/**
+ * An authority registered with {@link Authorities}, there is one instance per authority.
+ */
+public final class InternedAuthority implements GrantedAuthority {
+
+    private final int id;
+    private final String authority;
+
+    InternedAuthority(int id, String authority) {
+        this.id = id;
+        this.authority = authority;
+    }
+
+    /**
+     * @return The number of the authority, its bit in an {@link AuthoritySet}.
+     */
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public String getAuthority() {
+        return authority;
+    }
+
+    @Override
+    public String toString() {
+        return authority;
+    }
+
+    // the numbers are per JVM, a deserialized authority is looked up again
+    @Serial
+    private Object readResolve() {
+        InternedAuthority interned = Authorities.intern(authority);
+        return interned != null ? interned : this;
+    }
+}
@@ -0,0 +1,55 @@
+package io.klustr.spring.oauth;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.core.OAuth2AuthenticatedPrincipal;
+import org.springframework.security.oauth2.core.OAuth2TokenIntrospectionClaimAccessor;
+import org.springframework.security.oauth2.core.OAuth2TokenIntrospectionClaimNames;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The principal of an introspected token, built once when the token is first seen and
+ * cached with it, carrying its permissions and scopes as an {@link AuthoritySet}.
+ */
+public class IntrospectedPrincipal implements OAuth2TokenIntrospectionClaimAccessor, OAuth2AuthenticatedPrincipal, Serializable {
+
+    private final Map<String, Object> attributes;
+    private final AuthoritySet authorities;
+    private final String name;
+
+    public IntrospectedPrincipal(Map<String, Object> attributes, AuthoritySet authorities) {
+        this.attributes = Collections.unmodifiableMap(attributes);
+        this.authorities = authorities;
+        this.name = (String) attributes.get(OAuth2TokenIntrospectionClaimNames.SUB);
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Map<String, Object> getClaims() {
+        return attributes;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    /**
+     * @return The authorities as a bitset.
+     */
+    public AuthoritySet authorities() {
+        return authorities;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
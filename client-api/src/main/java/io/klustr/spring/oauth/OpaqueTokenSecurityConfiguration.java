@@ -2,10 +2,16 @@ package io.klustr.spring.oauth;
 
 import io.klustr.spring.oauth.CacheOpaqueTokenIntrospector;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
 
+import java.net.http.HttpClient;
+
 /**
  * Enables the configuration of opaque tokens
  */
@@ -25,7 +31,14 @@ public class OpaqueTokenSecurityConfiguration {
     String apiKey;
 
     @Bean
-    public OpaqueTokenIntrospector introspector() {
+    public OpaqueTokenIntrospector introspector(Environment environment) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            // introspection calls block the request thread, let them park a virtual thread instead
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(new VirtualThreadTaskExecutor("introspection-"))
+                    .build();
+            return new CacheOpaqueTokenIntrospector(introspectionUri, clientId, clientSecret, apiKey, 10, new JdkClientHttpRequestFactory(client));
+        }
         return new CacheOpaqueTokenIntrospector(introspectionUri, clientId, clientSecret, apiKey);
     }
 
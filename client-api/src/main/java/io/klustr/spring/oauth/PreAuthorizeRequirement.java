@@ -0,0 +1,133 @@
+package io.klustr.spring.oauth;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@code @PreAuthorize} expression made only of {@code hasAuthority('...')} and
+ * {@code hasAnyAuthority('...', ...)} terms joined by {@code and}, compiled into
+ * {@link AuthoritySet} masks. That is every expression in use here; anything else is
+ * left to SpEL.
+ */
+public final class PreAuthorizeRequirement {
+
+    private static final Pattern HAS_AUTHORITY = Pattern.compile("hasAuthority\\(\\s*'([^']*)'\\s*\\)");
+    private static final Pattern HAS_ANY_AUTHORITY = Pattern.compile("hasAnyAuthority\\(((?:\\s*'[^']*'\\s*,)*\\s*'[^']*'\\s*)\\)");
+    private static final Pattern QUOTED = Pattern.compile("'([^']*)'");
+
+    private final AuthoritySet all;
+    private final List<AuthoritySet> anyOf;
+    private final List<String> authorities;
+
+    private PreAuthorizeRequirement(AuthoritySet all, List<AuthoritySet> anyOf, List<String> authorities) {
+        this.all = all;
+        this.anyOf = anyOf;
+        this.authorities = authorities;
+    }
+
+    /**
+     * @return The compiled expression, or null when it is not only made of authority checks.
+     */
+    public static PreAuthorizeRequirement compile(String expression) {
+        List<String> all = new ArrayList<>();
+        List<AuthoritySet> anyOf = new ArrayList<>();
+        ImmutableList.Builder<String> authorities = ImmutableList.builder();
+
+        List<String> terms = terms(expression.trim());
+        if (terms == null) {
+            return null;
+        }
+        for (String term : terms) {
+            Matcher single = HAS_AUTHORITY.matcher(term);
+            Matcher any = HAS_ANY_AUTHORITY.matcher(term);
+            if (single.matches()) {
+                all.add(single.group(1));
+                authorities.add(single.group(1));
+            } else if (any.matches()) {
+                List<String> names = new ArrayList<>();
+                Matcher quoted = QUOTED.matcher(any.group(1));
+                while (quoted.find()) {
+                    names.add(quoted.group(1));
+                }
+                AuthoritySet set = AuthoritySet.of(names);
+                if (!interned(set)) {
+                    return null;
+                }
+                anyOf.add(set);
+                authorities.addAll(names);
+            } else {
+                return null;
+            }
+        }
+
+        AuthoritySet allSet = AuthoritySet.of(all);
+        if (!interned(allSet)) {
+            return null;
+        }
+        return new PreAuthorizeRequirement(allSet, ImmutableList.copyOf(anyOf), authorities.build());
+    }
+
+    /**
+     * Splits on the {@code and} operators, those between quotes belong to an authority name.
+     *
+     * @return The terms, or null when a quote is left open.
+     */
+    private static List<String> terms(String expression) {
+        List<String> terms = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && Character.isWhitespace(c) && isAnd(expression, i)) {
+                terms.add(expression.substring(start, i).trim());
+                start = i + " and ".length();
+                i = start - 1;
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        terms.add(expression.substring(start).trim());
+        return terms;
+    }
+
+    // " and " at i, any case and whitespace
+    private static boolean isAnd(String expression, int i) {
+        return i + 4 < expression.length()
+                && expression.regionMatches(true, i + 1, "and", 0, 3)
+                && Character.isWhitespace(expression.charAt(i + 4));
+    }
+
+    // with the registry full an authority is only known by name and cannot be tested as a bit
+    private static boolean interned(AuthoritySet set) {
+        return set.stream().allMatch(a -> a instanceof InternedAuthority);
+    }
+
+    /**
+     * @return true if the granted authorities satisfy the expression.
+     */
+    public boolean test(AuthoritySet granted) {
+        if (!granted.hasAll(all)) {
+            return false;
+        }
+        for (AuthoritySet any : anyOf) {
+            if (!granted.hasAny(any)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Every authority named in the expression, in order.
+     */
+    public List<String> authorities() {
+        return authorities;
+    }
+}
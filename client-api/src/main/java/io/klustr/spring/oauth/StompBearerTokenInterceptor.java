@@ -0,0 +1,143 @@
+package io.klustr.spring.oauth;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2AuthenticatedPrincipal;
+import org.springframework.security.oauth2.core.OAuth2TokenIntrospectionClaimNames;
+import org.springframework.security.oauth2.server.resource.authentication.BearerTokenAuthentication;
+import org.springframework.security.oauth2.server.resource.introspection.BadOpaqueTokenException;
+import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+import java.security.Principal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Authenticates STOMP sessions with the bearer token of the {@code CONNECT} frame.
+ * <p>
+ * The token is introspected once when the session connects (through the cached
+ * introspector, like any HTTP request) and the resulting authentication is kept as
+ * the session user, so frames sent afterwards cost nothing. Subscriptions and sends
+ * can be restricted per destination to principals holding an authority, and
+ * subscriptions to the destinations a client may subscribe to at all.
+ */
+public class StompBearerTokenInterceptor implements ChannelInterceptor {
+
+    private static final String BEARER = "Bearer ";
+
+    private final OpaqueTokenIntrospector introspector;
+    private final PathMatcher matcher = new AntPathMatcher();
+    private final Map<String, String> requiredAuthorities = new LinkedHashMap<>();
+    private final List<String> subscribable = new ArrayList<>();
+
+    public StompBearerTokenInterceptor(OpaqueTokenIntrospector introspector) {
+        this.introspector = introspector;
+    }
+
+    /**
+     * Only lets principals holding {@code authority} subscribe or send to destinations matching the pattern.
+     *
+     * @param destinationPattern An ant style pattern, like {@code /user/queue/**}.
+     * @param authority          The authority, like {@code SCOPE_profile}.
+     */
+    public StompBearerTokenInterceptor requireAuthority(String destinationPattern, String authority) {
+        requiredAuthorities.put(destinationPattern, authority);
+        return this;
+    }
+
+    /**
+     * Only lets clients subscribe to destinations matching one of the patterns, all
+     * others are denied. Without it any destination may be subscribed to, including
+     * the broker's own, like {@code /queue/**}, which receives what is sent to every
+     * user.
+     *
+     * @param destinationPatterns Ant style patterns, like {@code /user/queue/**}.
+     */
+    public StompBearerTokenInterceptor allowSubscriptions(String... destinationPatterns) {
+        subscribable.addAll(List.of(destinationPatterns));
+        return this;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+
+        switch (accessor.getCommand()) {
+            case CONNECT, STOMP -> accessor.setUser(authenticate(message, accessor));
+            case SUBSCRIBE, SEND -> authorize(message, accessor);
+            default -> {
+            }
+        }
+        return message;
+    }
+
+    private Authentication authenticate(Message<?> message, StompHeaderAccessor accessor) {
+        String header = accessor.getFirstNativeHeader("Authorization");
+        if (header == null || !StringUtils.startsWithIgnoreCase(header, BEARER)) {
+            throw new MessageDeliveryException(message, "Missing bearer token");
+        }
+
+        String token = header.substring(BEARER.length()).trim();
+        OAuth2AuthenticatedPrincipal principal;
+        try {
+            principal = introspector.introspect(token);
+            if (principal == null) {
+                throw new BadOpaqueTokenException("Provided token isn't active");
+            }
+        } catch (RuntimeException e) {
+            throw new MessageDeliveryException(message, "Invalid bearer token", e);
+        }
+
+        Instant iat = principal.getAttribute(OAuth2TokenIntrospectionClaimNames.IAT);
+        Instant exp = principal.getAttribute(OAuth2TokenIntrospectionClaimNames.EXP);
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, token, iat, exp);
+        return new BearerTokenAuthentication(principal, accessToken, principal.getAuthorities());
+    }
+
+    private void authorize(Message<?> message, StompHeaderAccessor accessor) {
+        Principal user = accessor.getUser();
+        if (!(user instanceof Authentication authentication) || !authentication.isAuthenticated()) {
+            throw new MessageDeliveryException(message, "Not authenticated");
+        }
+
+        String destination = accessor.getDestination();
+        if (destination == null) {
+            return;
+        }
+        if (accessor.getCommand() == StompCommand.SUBSCRIBE && !subscribable.isEmpty()
+                && subscribable.stream().noneMatch(pattern -> matcher.match(pattern, destination))) {
+            throw new MessageDeliveryException(message, "Access denied to " + destination);
+        }
+        for (Map.Entry<String, String> required : requiredAuthorities.entrySet()) {
+            if (matcher.match(required.getKey(), destination) && !hasAuthority(authentication, required.getValue())) {
+                throw new MessageDeliveryException(message, "Access denied to " + destination);
+            }
+        }
+    }
+
+    private static boolean hasAuthority(Authentication authentication, String authority) {
+        for (GrantedAuthority granted : authentication.getAuthorities()) {
+            if (authority.equals(granted.getAuthority())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
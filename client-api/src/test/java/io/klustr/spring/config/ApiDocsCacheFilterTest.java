@@ -0,0 +1,175 @@
+package io.klustr.spring.config;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springdoc.core.models.GroupedOpenApi;
+import org.springdoc.webmvc.api.MultipleOpenApiWebMvcResource;
+import org.springdoc.webmvc.api.OpenApiWebMvcResource;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class ApiDocsCacheFilterTest {
+
+    private static final String SERVER_URL = "https://api.example.com/";
+
+    private final OpenApiWebMvcResource openApi = mock(OpenApiWebMvcResource.class);
+    private final MultipleOpenApiWebMvcResource groupedOpenApi = mock(MultipleOpenApiWebMvcResource.class);
+    private final AtomicInteger springdocCalls = new AtomicInteger();
+    private ApiDocsCacheFilter filter;
+
+    @BeforeEach
+    public void renderDocuments() throws Exception {
+        // like springdoc, the server is the request URL without the documents path
+        when(openApi.openapiJson(any(), anyString(), any())).thenAnswer(call ->
+                document("json", call.getArgument(0), call.getArgument(1)));
+        when(openApi.openapiYaml(any(), anyString(), any())).thenAnswer(call ->
+                document("yaml", call.getArgument(0), call.getArgument(1)));
+        when(groupedOpenApi.openapiJson(any(), anyString(), anyString(), any())).thenAnswer(call ->
+                document("json " + call.getArgument(2), call.getArgument(0), call.getArgument(1) + "/" + call.getArgument(2)));
+        when(groupedOpenApi.openapiYaml(any(), anyString(), anyString(), any())).thenAnswer(call ->
+                document("yaml " + call.getArgument(2), call.getArgument(0), call.getArgument(1) + "/" + call.getArgument(2)));
+
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("openApi", openApi);
+        beans.addBean("groupedOpenApi", groupedOpenApi);
+        beans.addBean("everything", GroupedOpenApi.builder().group("everything").pathsToMatch("/**").build());
+
+        filter = new ApiDocsCacheFilter("/v3/api-docs", SERVER_URL, beans.getBeanProvider(OpenApiWebMvcResource.class),
+                beans.getBeanProvider(MultipleOpenApiWebMvcResource.class), beans.getBeanProvider(GroupedOpenApi.class));
+        filter.onApplicationEvent(new ContextRefreshedEvent(new StaticApplicationContext()));
+    }
+
+    @Test
+    public void documentsAreRenderedOnceForTheServerUrl() throws Exception {
+        assertEquals("json for https://api.example.com", body(send(request("/v3/api-docs"))));
+        assertEquals("yaml for https://api.example.com", body(send(request("/v3/api-docs.yaml"))));
+        assertEquals("json everything for https://api.example.com", body(send(request("/v3/api-docs/everything"))));
+        assertEquals("yaml everything for https://api.example.com", body(send(request("/v3/api-docs.yaml/everything"))));
+
+        MockHttpServletRequest query = request("/v3/api-docs");
+        query.setQueryString("cache-buster=" + System.nanoTime());
+        MockHttpServletRequest host = request("/v3/api-docs");
+        host.setServerName("attacker.example.org");
+        host.addHeader(HttpHeaders.HOST, "attacker.example.org");
+        assertEquals("json for https://api.example.com", body(send(query)));
+        assertEquals("json for https://api.example.com", body(send(host)));
+
+        MockHttpServletResponse yaml = send(request("/v3/api-docs.yaml"));
+        assertEquals("application/vnd.oai.openapi", yaml.getContentType());
+        assertEquals("application/json", send(request("/v3/api-docs")).getContentType());
+
+        // rendered at the refresh, none of the requests reached springdoc
+        assertEquals(0, springdocCalls.get());
+        verify(openApi, times(1)).openapiJson(any(), anyString(), any());
+        verify(openApi, times(1)).openapiYaml(any(), anyString(), any());
+        verify(groupedOpenApi, times(1)).openapiJson(any(), anyString(), anyString(), any());
+        verify(groupedOpenApi, times(1)).openapiYaml(any(), anyString(), anyString(), any());
+        verifyNoMoreInteractions(openApi, groupedOpenApi);
+    }
+
+    @Test
+    public void documentsAreSentGzippedAndConditionally() throws Exception {
+        MockHttpServletRequest gzip = request("/v3/api-docs");
+        gzip.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        MockHttpServletResponse gzipped = send(gzip);
+        assertEquals("gzip", gzipped.getHeader(HttpHeaders.CONTENT_ENCODING));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getContentAsByteArray()))) {
+            assertEquals("json for https://api.example.com", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        MockHttpServletResponse first = send(request("/v3/api-docs"));
+        MockHttpServletRequest conditional = request("/v3/api-docs");
+        conditional.addHeader(HttpHeaders.IF_NONE_MATCH, first.getHeader(HttpHeaders.ETAG));
+        MockHttpServletResponse notModified = send(conditional);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+
+        MockHttpServletRequest head = request("/v3/api-docs");
+        head.setMethod("HEAD");
+        MockHttpServletResponse headers = send(head);
+        assertEquals(first.getContentLength(), headers.getContentLength());
+        assertEquals(0, headers.getContentAsByteArray().length);
+        assertEquals(0, springdocCalls.get());
+    }
+
+    @Test
+    public void otherRequestsAreLeftToSpringdoc() throws Exception {
+        send(request("/v3/api-docs/swagger-config"));
+        send(request("/v3/api-docs/unknown-group"));
+        send(request("/v3/api-docs/"));
+        MockHttpServletRequest post = request("/v3/api-docs");
+        post.setMethod("POST");
+        send(post);
+        assertEquals(4, springdocCalls.get());
+    }
+
+    @Test
+    public void documentsFailingToRenderAreLeftToSpringdoc() throws Exception {
+        doThrow(new IllegalStateException("no yaml")).when(openApi).openapiYaml(any(), anyString(), any());
+        filter.refresh();
+
+        assertEquals("json for https://api.example.com", body(send(request("/v3/api-docs"))));
+        assertNull(send(request("/v3/api-docs.yaml")).getContentType());
+        assertEquals(1, springdocCalls.get());
+    }
+
+    @Test
+    public void documentsArePickedUpByTheContextPath() throws Exception {
+        MockHttpServletRequest request = request("/api/v3/api-docs");
+        request.setContextPath("/api");
+        assertEquals("json for https://api.example.com", body(send(request)));
+        assertEquals(0, springdocCalls.get());
+    }
+
+    private static byte[] document(String name, HttpServletRequest request, String apiDocsUrl) {
+        String url = request.getRequestURL().toString();
+        return (name + " for " + url.substring(0, url.length() - apiDocsUrl.length())).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static MockHttpServletRequest request(String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        request.setServerName("localhost");
+        return request;
+    }
+
+    private MockHttpServletResponse send(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                springdocCalls.incrementAndGet();
+            }
+        }, filter).doFilter(request, response);
+        return response;
+    }
+
+    private static String body(MockHttpServletResponse response) throws IOException {
+        return response.getContentAsString(StandardCharsets.UTF_8);
+    }
+}
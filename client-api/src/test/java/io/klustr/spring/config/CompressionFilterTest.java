@@ -0,0 +1,232 @@
+package io.klustr.spring.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompressionFilterTest {
+
+    private static final int MIN_SIZE = 256;
+
+    private final CompressionFilter filter = new CompressionFilter(MIN_SIZE, 6, List.of("application/json", "text/*"), new SimpleMeterRegistry());
+
+    @Test
+    public void negotiatesGzipOverDeflate() {
+        assertEquals(CompressionFilter.Encoding.GZIP, CompressionFilter.negotiate("gzip, deflate"));
+        assertEquals(CompressionFilter.Encoding.GZIP, CompressionFilter.negotiate("deflate, x-gzip"));
+        assertEquals(CompressionFilter.Encoding.DEFLATE, CompressionFilter.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(CompressionFilter.Encoding.DEFLATE, CompressionFilter.negotiate("deflate"));
+        assertNull(CompressionFilter.negotiate("br, identity"));
+        assertNull(CompressionFilter.negotiate(""));
+    }
+
+    @Test
+    public void negotiatesQZeroAndWildcard() {
+        assertNull(CompressionFilter.negotiate("gzip;q=0"));
+        assertEquals(CompressionFilter.Encoding.DEFLATE, CompressionFilter.negotiate("gzip;q=0, deflate"));
+        assertEquals(CompressionFilter.Encoding.GZIP, CompressionFilter.negotiate("*"));
+        assertEquals(CompressionFilter.Encoding.DEFLATE, CompressionFilter.negotiate("gzip;q=0, *"));
+        assertEquals(CompressionFilter.Encoding.GZIP, CompressionFilter.negotiate("deflate;q=0.1, *;q=0.5"));
+        assertNull(CompressionFilter.negotiate("*;q=0"));
+        assertNull(CompressionFilter.negotiate("gzip;q=abc"));
+    }
+
+    @Test
+    public void bodiesBelowTheThresholdAreSentAsIs() throws Exception {
+        byte[] body = body(MIN_SIZE - 1);
+
+        for (boolean withLength : new boolean[]{true, false}) {
+            MockHttpServletResponse response = send("gzip", "application/json", body, withLength);
+            assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+            assertEquals(body.length, response.getContentLength());
+            assertArrayEquals(body, response.getContentAsByteArray());
+            assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeader(HttpHeaders.VARY));
+        }
+    }
+
+    @Test
+    public void bodiesAtAndAboveTheThresholdAreGzipped() throws Exception {
+        for (int size : new int[]{MIN_SIZE, MIN_SIZE + 1, 100_000}) {
+            for (boolean withLength : new boolean[]{true, false}) {
+                byte[] body = body(size);
+                MockHttpServletResponse response = send("gzip", "application/json", body, withLength);
+
+                assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING), size + " bytes");
+                assertNull(response.getHeader(HttpHeaders.CONTENT_LENGTH));
+                assertArrayEquals(body, gunzip(response.getContentAsByteArray()), size + " bytes");
+            }
+        }
+    }
+
+    @Test
+    public void bodiesAreDeflated() throws Exception {
+        byte[] body = body(10_000);
+        MockHttpServletResponse response = send("deflate", "application/json", body, true);
+
+        assertEquals("deflate", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(body, inflate(response.getContentAsByteArray()));
+    }
+
+    @Test
+    public void xGzipIsAnsweredWithGzip() throws Exception {
+        byte[] body = body(10_000);
+        MockHttpServletResponse response = send("x-gzip", "application/json", body, true);
+
+        assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(body, gunzip(response.getContentAsByteArray()));
+    }
+
+    @Test
+    public void refusedOrIncompressibleBodiesAreSentAsIs() throws Exception {
+        byte[] body = body(10_000);
+
+        for (MockHttpServletResponse response : List.of(
+                send("gzip;q=0", "application/json", body, true),
+                send("identity", "application/json", body, true),
+                send("gzip", "image/png", body, true))) {
+            assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+            assertEquals(body.length, response.getContentLength());
+            assertArrayEquals(body, response.getContentAsByteArray());
+        }
+    }
+
+    @Test
+    public void flushedAsyncBodyIsSentAsItIsWritten() throws Exception {
+        byte[] first = body(100);
+        byte[] second = body(5_000);
+        AtomicReference<ServletOutputStream> stream = new AtomicReference<>();
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/stream");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // a StreamingResponseBody: the request goes async, the body is written and flushed in parts
+        new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                req.startAsync();
+                resp.setContentType("text/plain");
+                stream.set(resp.getOutputStream());
+                stream.get().write(first);
+                stream.get().flush();
+            }
+        }, filter).doFilter(request, response);
+
+        // below the threshold, yet the flush sent it compressed
+        assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            assertArrayEquals(first, in.readNBytes(first.length));
+        }
+
+        stream.get().write(second);
+        stream.get().flush();
+
+        // the last dispatch finishes the stream
+        request.setAsyncStarted(false);
+        request.setDispatcherType(DispatcherType.ASYNC);
+        filter.doFilter(request, response, new MockFilterChain());
+
+        byte[] expected = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        assertArrayEquals(expected, gunzip(response.getContentAsByteArray()));
+    }
+
+    @Test
+    public void pooledDeflaterIsResetBetweenResponses() throws Exception {
+        // the same thread borrows the same deflater, a leftover state would corrupt the second body
+        byte[] one = body(20_000);
+        byte[] two = "another body, compressed by the same deflater ".repeat(200).getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(one, gunzip(send("gzip", "application/json", one, false).getContentAsByteArray()));
+        assertArrayEquals(two, gunzip(send("gzip", "application/json", two, false).getContentAsByteArray()));
+        assertArrayEquals(one, inflate(send("deflate", "application/json", one, false).getContentAsByteArray()));
+        assertArrayEquals(two, inflate(send("deflate", "application/json", two, false).getContentAsByteArray()));
+    }
+
+    @Test
+    public void poolHandsBackResetDeflaters() {
+        CompressionFilter.DeflaterPool pool = new CompressionFilter.DeflaterPool(1, 6, true);
+
+        Deflater deflater = pool.borrow();
+        deflater.setInput(body(1_000));
+        deflater.deflate(new byte[2_000], 0, 2_000, Deflater.SYNC_FLUSH);
+        assertTrue(deflater.getBytesRead() > 0);
+        pool.release(deflater);
+
+        Deflater again = pool.borrow();
+        assertSame(deflater, again);
+        assertEquals(0, again.getBytesRead());
+        assertEquals(0, again.getBytesWritten());
+
+        // with the pool full an extra deflater is ended, not kept
+        pool.release(again);
+        Deflater extra = new Deflater(6, true);
+        pool.release(extra);
+        assertSame(again, pool.borrow());
+    }
+
+    private MockHttpServletResponse send(String acceptEncoding, String contentType, byte[] body, boolean withLength) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/hello");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.setContentType(contentType);
+                if (withLength) {
+                    resp.setContentLength(body.length);
+                }
+                // in parts, the way a converter writes through its buffer
+                ServletOutputStream out = resp.getOutputStream();
+                for (int off = 0; off < body.length; off += 100) {
+                    out.write(body, off, Math.min(100, body.length - off));
+                }
+            }
+        }, filter).doFilter(request, response);
+        return response;
+    }
+
+    private static byte[] body(int size) {
+        byte[] json = "{\"time\":1700000000,\"bpm\":72},".repeat(size / 29 + 1).getBytes(StandardCharsets.UTF_8);
+        return Arrays.copyOf(json, size);
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+}
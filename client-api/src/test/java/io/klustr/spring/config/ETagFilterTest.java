@@ -0,0 +1,202 @@
+package io.klustr.spring.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.Filter;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ETagFilterTest {
+
+    private static final byte[] BODY = "{\"message\":\"hello world\"}".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+    static class Endpoints {
+        public void plain() {
+        }
+
+        @ETag
+        public void optedIn() {
+        }
+
+        @ETag(false)
+        public void optedOut() {
+        }
+    }
+
+    @ETag(false)
+    static class OptedOutEndpoints {
+        public void plain() {
+        }
+
+        @ETag
+        public void optedIn() {
+        }
+    }
+
+    @Test
+    public void matchingIfNoneMatchIsAnswered304() throws Exception {
+        MockHttpServletResponse first = get(new ETagFilter(true), "plain", null);
+        String etag = first.getHeader(HttpHeaders.ETAG);
+
+        assertEquals(200, first.getStatus());
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""), etag);
+        assertEquals(BODY.length, first.getContentLength());
+        assertArrayEquals(BODY, first.getContentAsByteArray());
+
+        MockHttpServletResponse second = get(new ETagFilter(true), "plain", etag);
+        assertEquals(304, second.getStatus());
+        assertEquals(etag, second.getHeader(HttpHeaders.ETAG));
+        assertEquals(0, second.getContentAsByteArray().length);
+
+        MockHttpServletResponse changed = get(new ETagFilter(true), "plain", "\"something-else\"");
+        assertEquals(200, changed.getStatus());
+        assertArrayEquals(BODY, changed.getContentAsByteArray());
+    }
+
+    @Test
+    public void endpointsOptOutWhenAllAreHashed() throws Exception {
+        ETagFilter filter = new ETagFilter(true);
+
+        assertNotNull(get(filter, "optedIn", null).getHeader(HttpHeaders.ETAG));
+        assertNull(get(filter, "optedOut", null).getHeader(HttpHeaders.ETAG));
+        assertNull(get(filter, new HandlerMethod(new OptedOutEndpoints(), "plain"), null).getHeader(HttpHeaders.ETAG));
+        assertNotNull(get(filter, new HandlerMethod(new OptedOutEndpoints(), "optedIn"), null).getHeader(HttpHeaders.ETAG));
+
+        MockHttpServletResponse optedOut = get(filter, "optedOut", null);
+        assertArrayEquals(BODY, optedOut.getContentAsByteArray());
+        assertEquals(BODY.length, optedOut.getContentLength());
+    }
+
+    @Test
+    public void endpointsOptInWhenNotAllAreHashed() throws Exception {
+        ETagFilter filter = new ETagFilter(false);
+
+        assertNull(get(filter, "plain", null).getHeader(HttpHeaders.ETAG));
+        assertNotNull(get(filter, "optedIn", null).getHeader(HttpHeaders.ETAG));
+        assertNull(get(filter, "optedOut", null).getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void otherThan200IsPassedThrough() throws Exception {
+        MockHttpServletRequest request = request("plain");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        new MockFilterChain(servlet(HttpServletResponse.SC_NOT_FOUND, false), new ETagFilter(true)).doFilter(request, response);
+
+        assertEquals(404, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(BODY, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void asyncIsPassedThrough() throws Exception {
+        MockHttpServletRequest request = request("plain");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        new MockFilterChain(servlet(HttpServletResponse.SC_OK, true), new ETagFilter(true)).doFilter(request, response);
+
+        assertNull(response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(BODY, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void postIsNotHashed() throws Exception {
+        MockHttpServletRequest request = request("plain");
+        request.setMethod("POST");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        new MockFilterChain(servlet(HttpServletResponse.SC_OK, false), new ETagFilter(true)).doFilter(request, response);
+
+        assertNull(response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(BODY, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void compressedResponsesGetAWeakTag() throws Exception {
+        CompressionFilter compression = new CompressionFilter(256, 6, List.of("application/json"), new SimpleMeterRegistry());
+
+        MockHttpServletResponse first = gzipped(compression, null);
+        String etag = first.getHeader(HttpHeaders.ETAG);
+        assertEquals("gzip", first.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("W/\""), etag);
+
+        // the weak tag from the compressed response still matches the identity body
+        MockHttpServletResponse second = gzipped(compression, etag);
+        assertEquals(304, second.getStatus());
+        assertEquals(0, second.getContentAsByteArray().length);
+    }
+
+    private static MockHttpServletResponse gzipped(CompressionFilter compression, String ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = request("plain");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new MockFilterChain(servlet(HttpServletResponse.SC_OK, false), compression, new ETagFilter(true)).doFilter(request, response);
+        return response;
+    }
+
+    private static MockHttpServletResponse get(Filter filter, String method, String ifNoneMatch) throws Exception {
+        return get(filter, new HandlerMethod(new Endpoints(), method), ifNoneMatch);
+    }
+
+    private static MockHttpServletResponse get(Filter filter, HandlerMethod handler, String ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = request(handler);
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new MockFilterChain(servlet(HttpServletResponse.SC_OK, false), filter).doFilter(request, response);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method) throws NoSuchMethodException {
+        return request(new HandlerMethod(new Endpoints(), method));
+    }
+
+    private static MockHttpServletRequest request(HandlerMethod handler) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/hello");
+        request.setAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, handler);
+        return request;
+    }
+
+    /**
+     * Writes {@link #BODY} the way a message converter does: status, type and length
+     * first, then the bytes.
+     */
+    private static HttpServlet servlet(int status, boolean async) {
+        return new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                if (async) {
+                    request.startAsync();
+                }
+                response.setStatus(status);
+                response.setContentType("application/json");
+                response.setContentLength(BODY.length);
+                response.getOutputStream().write(BODY);
+            }
+        };
+    }
+}
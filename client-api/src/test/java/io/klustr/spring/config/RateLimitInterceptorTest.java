@@ -0,0 +1,165 @@
+package io.klustr.spring.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.method.HandlerMethod;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RateLimitInterceptorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    static class Endpoints {
+        @PreAuthorize("hasAuthority('SCOPE_read')")
+        @RateLimit(permitsPerSecond = 1, burst = 2)
+        public void read() {
+        }
+
+        @PreAuthorize("hasAuthority('SCOPE_read')")
+        @RateLimit(permitsPerSecond = 1, burst = 2)
+        public void readMore() {
+        }
+
+        @PreAuthorize("hasAuthority('SCOPE_read')")
+        @RateLimit(permitsPerSecond = 10, burst = 2)
+        public void readFaster() {
+        }
+
+        @PreAuthorize("hasAuthority('SCOPE_read')")
+        @RateLimit(permitsPerSecond = 10, burst = 2, bucket = "fast")
+        public void readFasterApart() {
+        }
+
+        public void unlimited() {
+        }
+    }
+
+    @AfterEach
+    public void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void burstIsAllowedBackToBack() {
+        RateLimitInterceptor.Quota quota = RateLimitInterceptor.Quota.of("test", 2, 3);
+        AtomicLong bucket = new AtomicLong(Long.MIN_VALUE);
+        long now = 1_000 * SECOND;
+
+        assertEquals(0, RateLimitInterceptor.acquire(bucket, quota, now));
+        assertEquals(0, RateLimitInterceptor.acquire(bucket, quota, now));
+        assertEquals(0, RateLimitInterceptor.acquire(bucket, quota, now));
+        assertEquals(SECOND / 2, RateLimitInterceptor.acquire(bucket, quota, now));
+        // a rejected call takes no token
+        assertEquals(SECOND / 2, RateLimitInterceptor.acquire(bucket, quota, now));
+    }
+
+    @Test
+    public void tokensRefillAtTheRate() {
+        RateLimitInterceptor.Quota quota = RateLimitInterceptor.Quota.of("test", 2, 3);
+        AtomicLong bucket = new AtomicLong(Long.MIN_VALUE);
+        long now = 1_000 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            RateLimitInterceptor.acquire(bucket, quota, now);
+        }
+
+        assertEquals(SECOND / 4, RateLimitInterceptor.acquire(bucket, quota, now + SECOND / 4));
+        assertEquals(0, RateLimitInterceptor.acquire(bucket, quota, now + SECOND / 2));
+        assertEquals(SECOND / 2, RateLimitInterceptor.acquire(bucket, quota, now + SECOND / 2));
+
+        // a long idle bucket is full again, but holds no more than the burst
+        long later = now + 60 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, RateLimitInterceptor.acquire(bucket, quota, later));
+        }
+        assertEquals(SECOND / 2, RateLimitInterceptor.acquire(bucket, quota, later));
+    }
+
+    @Test
+    public void retryAfterIsRoundedUpToSeconds() {
+        assertEquals(1, RateLimitInterceptor.retryAfterSeconds(1));
+        assertEquals(1, RateLimitInterceptor.retryAfterSeconds(SECOND / 2));
+        assertEquals(1, RateLimitInterceptor.retryAfterSeconds(SECOND));
+        assertEquals(2, RateLimitInterceptor.retryAfterSeconds(SECOND + 1));
+        assertEquals(30, RateLimitInterceptor.retryAfterSeconds(30 * SECOND));
+    }
+
+    @Test
+    public void exhaustedQuotaIsAnswered429WithRetryAfter() throws Exception {
+        RateLimitInterceptor interceptor = interceptor(0);
+        HandlerMethod read = new HandlerMethod(new Endpoints(), "read");
+        authenticate("alice");
+
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), read));
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), read));
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), rejected, read));
+        assertEquals(429, rejected.getStatus());
+        assertEquals("1", rejected.getHeader(HttpHeaders.RETRY_AFTER));
+
+        // another principal has its own bucket
+        authenticate("bob");
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), read));
+    }
+
+    @Test
+    public void endpointsWithTheSameAuthorityShareABucket() throws Exception {
+        RateLimitInterceptor interceptor = interceptor(0);
+        authenticate("alice");
+
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new HandlerMethod(new Endpoints(), "read")));
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new HandlerMethod(new Endpoints(), "readMore")));
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new HandlerMethod(new Endpoints(), "read")));
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new HandlerMethod(new Endpoints(), "readFasterApart")));
+    }
+
+    @Test
+    public void conflictingQuotasForOneBucketAreRejected() throws Exception {
+        RateLimitInterceptor interceptor = interceptor(0);
+
+        interceptor.register(List.of(new HandlerMethod(new Endpoints(), "read"), new HandlerMethod(new Endpoints(), "readMore"),
+                new HandlerMethod(new Endpoints(), "readFasterApart")));
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> interceptor.register(List.of(new HandlerMethod(new Endpoints(), "readFaster"))));
+        assertTrue(e.getMessage().contains("SCOPE_read"), e.getMessage());
+    }
+
+    @Test
+    public void endpointsWithoutRateLimitUseTheDefault() throws Exception {
+        HandlerMethod unlimited = new HandlerMethod(new Endpoints(), "unlimited");
+        authenticate("alice");
+
+        RateLimitInterceptor none = interceptor(0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(none.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), unlimited));
+        }
+
+        RateLimitInterceptor limited = interceptor(1);
+        assertTrue(limited.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), unlimited));
+        assertFalse(limited.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), unlimited));
+    }
+
+    private static RateLimitInterceptor interceptor(double defaultPermitsPerSecond) {
+        return new RateLimitInterceptor(defaultPermitsPerSecond, 1, 1_000, Duration.ofMinutes(10), new SimpleMeterRegistry());
+    }
+
+    private static void authenticate(String name) {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(name, "n/a", "SCOPE_read"));
+    }
+}
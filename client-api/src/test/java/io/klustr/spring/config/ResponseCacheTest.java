@@ -0,0 +1,236 @@
+package io.klustr.spring.config;
+
+import io.klustr.spring.oauth.CacheOpaqueTokenIntrospector;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+public class ResponseCacheTest {
+
+    private static final String TOKEN = "token-of-alice";
+
+    private AnnotationConfigWebApplicationContext context;
+    private MockMvc mvc;
+    private Greetings greetings;
+
+    @RestController
+    static class Greetings {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @GetMapping("/principal")
+        @CachedResponse
+        public Map<String, Object> principal() {
+            return greeting();
+        }
+
+        @GetMapping("/scope")
+        @CachedResponse(varyBy = CachedResponse.VaryBy.SCOPE)
+        public Map<String, Object> scope() {
+            return greeting();
+        }
+
+        @GetMapping("/short")
+        @CachedResponse(ttl = 100, unit = TimeUnit.MILLISECONDS)
+        public Map<String, Object> shortLived() {
+            return greeting();
+        }
+
+        @GetMapping("/uncached")
+        public Map<String, Object> uncached() {
+            return greeting();
+        }
+
+        private Map<String, Object> greeting() {
+            return new TreeMap<>(Map.of("call", calls.incrementAndGet(), "name", SecurityContextHolder.getContext().getAuthentication().getName()));
+        }
+    }
+
+    @Configuration
+    @EnableWebMvc
+    static class Mvc implements WebMvcConfigurer {
+        private final ResponseCache responseCache;
+
+        Mvc(ResponseCache responseCache) {
+            this.responseCache = responseCache;
+        }
+
+        @Override
+        public void addInterceptors(InterceptorRegistry registry) {
+            registry.addInterceptor(responseCache);
+        }
+    }
+
+    @Configuration
+    static class Beans {
+        @Bean
+        ResponseCache responseCache(ObjectProvider<RequestMappingHandlerAdapter> adapter, ObjectProvider<OpaqueTokenIntrospector> introspector) {
+            return new ResponseCache(DataSize.ofMegabytes(1), Duration.ofHours(1), adapter, introspector, new SimpleMeterRegistry());
+        }
+
+        /**
+         * Introspects every token as alice, without an introspection endpoint.
+         */
+        @Bean
+        CacheOpaqueTokenIntrospector introspector() {
+            return new CacheOpaqueTokenIntrospector("http://localhost/introspect", null, null, null, 300, (uri, method) -> {
+                MockClientHttpResponse response = new MockClientHttpResponse(
+                        "{\"active\":true,\"sub\":\"alice\",\"scope\":\"profile\"}".getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+                response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                MockClientHttpRequest request = new MockClientHttpRequest(method, uri);
+                request.setResponse(response);
+                return request;
+            });
+        }
+    }
+
+    @BeforeEach
+    public void startMvc() {
+        context = new AnnotationConfigWebApplicationContext();
+        context.register(Beans.class, Mvc.class, Greetings.class);
+        context.setServletContext(new MockServletContext());
+        context.refresh();
+        mvc = MockMvcBuilders.webAppContextSetup(context).build();
+        greetings = context.getBean(Greetings.class);
+    }
+
+    @AfterEach
+    public void stopMvc() {
+        SecurityContextHolder.clearContext();
+        context.close();
+    }
+
+    @Test
+    public void hitsAreServedPerPrincipal() throws Exception {
+        authenticate("alice", "SCOPE_profile");
+        MvcResult miss = perform("/principal");
+        MvcResult hit = perform("/principal");
+
+        assertEquals(1, greetings.calls.get());
+        assertEquals(miss.getResponse().getContentAsString(), hit.getResponse().getContentAsString());
+        assertEquals(miss.getResponse().getContentType(), hit.getResponse().getContentType());
+        assertEquals(miss.getResponse().getContentLength(), hit.getResponse().getContentLength());
+
+        // another principal with the same scopes gets its own entry
+        authenticate("bob", "SCOPE_profile");
+        assertEquals("{\"call\":2,\"name\":\"bob\"}", body("/principal"));
+        assertEquals("{\"call\":2,\"name\":\"bob\"}", body("/principal"));
+
+        // the same principal with other scopes too, a hit would skip @PreAuthorize
+        authenticate("alice", "SCOPE_profile", "SCOPE_admin");
+        assertEquals(3, call("/principal"));
+    }
+
+    @Test
+    public void hitsAreSharedPerScope() throws Exception {
+        authenticate("alice", "SCOPE_profile");
+        assertEquals(1, call("/scope"));
+
+        authenticate("bob", "SCOPE_profile");
+        assertEquals(1, call("/scope"));
+
+        authenticate("carol", "SCOPE_other");
+        assertEquals(2, call("/scope"));
+        assertEquals(2, greetings.calls.get());
+    }
+
+    @Test
+    public void requestsDifferingInQueryOrAcceptMiss() throws Exception {
+        authenticate("alice", "SCOPE_profile");
+
+        assertEquals(1, call("/principal"));
+        assertEquals(2, call("/principal?page=2"));
+        assertEquals(2, call("/principal?page=2"));
+        mvc.perform(get("/principal").header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)).andReturn();
+        assertEquals(3, greetings.calls.get());
+    }
+
+    @Test
+    public void uncachedEndpointsAlwaysRun() throws Exception {
+        authenticate("alice", "SCOPE_profile");
+        call("/uncached");
+        call("/uncached");
+        assertEquals(2, greetings.calls.get());
+    }
+
+    @Test
+    public void entriesExpireAfterTheirTtl() throws Exception {
+        authenticate("alice", "SCOPE_profile");
+        assertEquals(1, call("/short"));
+        assertEquals(1, call("/short"));
+
+        Thread.sleep(150);
+        assertEquals(2, call("/short"));
+    }
+
+    @Test
+    public void invalidatedTokenEvictsItsPrincipal() throws Exception {
+        CacheOpaqueTokenIntrospector introspector = context.getBean(CacheOpaqueTokenIntrospector.class);
+        introspector.introspect(TOKEN);
+
+        authenticate("alice", "SCOPE_profile");
+        assertEquals(1, call("/principal"));
+        assertEquals(2, call("/scope"));
+        authenticate("bob", "SCOPE_profile");
+        assertEquals(3, call("/principal"));
+
+        introspector.invalidate(TOKEN);
+
+        // alice's entries are gone, bob's and the per scope ones stay
+        authenticate("alice", "SCOPE_profile");
+        assertEquals(4, call("/principal"));
+        assertEquals(2, call("/scope"));
+        authenticate("bob", "SCOPE_profile");
+        assertEquals(3, call("/principal"));
+    }
+
+    private MvcResult perform(String uri) throws Exception {
+        return mvc.perform(get(uri)).andReturn();
+    }
+
+    private String body(String uri) throws Exception {
+        return perform(uri).getResponse().getContentAsString();
+    }
+
+    private int call(String uri) throws Exception {
+        String body = body(uri);
+        return Integer.parseInt(body.replaceAll(".*\"call\":(\\d+).*", "$1"));
+    }
+
+    private static void authenticate(String name, String... authorities) {
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(name, "n/a", authorities));
+    }
+}
@@ -0,0 +1,183 @@
+package io.klustr.spring.health;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.security.oauth2.server.resource.introspection.BadOpaqueTokenException;
+import org.springframework.security.oauth2.server.resource.introspection.OAuth2IntrospectionException;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class CachedHealthIndicatorTest {
+
+    private static final Duration INTERVAL = Duration.ofSeconds(10);
+
+    private final ExecutorService workers = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    public void stopWorkers() {
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void introspectionGoesUpDegradedDownAndBack() {
+        // the stubbed endpoint answers in the given time, or not at all when negative
+        AtomicLong answerMillis = new AtomicLong(5);
+        IntrospectionHealthProbe probe = new IntrospectionHealthProbe(token -> {
+            long millis = answerMillis.get();
+            if (millis < 0) {
+                throw new OAuth2IntrospectionException("Connection refused");
+            }
+            sleep(millis);
+            throw new BadOpaqueTokenException("Provided token isn't active");
+        }, Duration.ofMillis(50));
+        // probes run on the calling thread, the result is there once refresh() returns
+        CachedHealthIndicator indicator = new CachedHealthIndicator(probe, mock(ScheduledExecutorService.class), Runnable::run, INTERVAL, Duration.ofSeconds(5));
+
+        assertEquals(Status.UNKNOWN, indicator.health().getStatus());
+
+        indicator.refresh();
+        assertEquals(Status.UP, indicator.health().getStatus());
+        assertNotNull(indicator.health().getDetails().get("checked"));
+
+        // 0.3 * 400 + 0.7 * ~5 is past the threshold
+        answerMillis.set(400);
+        indicator.refresh();
+        assertEquals(HealthProbe.DEGRADED, indicator.health().getStatus());
+        assertTrue((Long) indicator.health().getDetails().get("latencyMs") >= 400);
+
+        answerMillis.set(-1);
+        indicator.refresh();
+        assertEquals(Status.DOWN, indicator.health().getStatus());
+        assertTrue(String.valueOf(indicator.health().getDetails().get("error")).contains("Connection refused"));
+
+        // the average comes back down over a few fast answers, not at the first one
+        answerMillis.set(0);
+        indicator.refresh();
+        assertEquals(HealthProbe.DEGRADED, indicator.health().getStatus());
+        int probes = 1;
+        while (indicator.health().getStatus() != Status.UP && probes < 10) {
+            indicator.refresh();
+            probes++;
+        }
+        assertEquals(Status.UP, indicator.health().getStatus());
+        assertTrue(probes > 1);
+    }
+
+    @Test
+    public void resultsAreKeptWithTheirDetails() {
+        AtomicInteger calls = new AtomicInteger();
+        CachedHealthIndicator indicator = new CachedHealthIndicator(() -> {
+            int call = calls.incrementAndGet();
+            return (call == 1 ? Health.up() : Health.status(HealthProbe.DEGRADED)).withDetail("call", call).build();
+        }, mock(ScheduledExecutorService.class), Runnable::run, INTERVAL, Duration.ofSeconds(5));
+
+        indicator.refresh();
+        assertEquals(Status.UP, indicator.health().getStatus());
+        assertEquals(1, indicator.health().getDetails().get("call"));
+
+        // health() only reads the last result
+        indicator.health();
+        indicator.health();
+        assertEquals(1, calls.get());
+
+        indicator.refresh();
+        assertEquals(HealthProbe.DEGRADED, indicator.health().getStatus());
+        assertEquals(2, indicator.health().getDetails().get("call"));
+    }
+
+    @Test
+    public void hungProbeIsReportedDownAndNotStartedAgain() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        CachedHealthIndicator indicator = new CachedHealthIndicator(() -> {
+            calls.incrementAndGet();
+            release.await();
+            return Health.up().build();
+        }, mock(ScheduledExecutorService.class), workers, INTERVAL, Duration.ofMillis(50));
+
+        indicator.refresh();
+        await(indicator, health -> health.getStatus().equals(Status.DOWN));
+        assertEquals("no answer within 50ms", indicator.health().getDetails().get("error"));
+
+        // still hanging, a refresh does not pile up another call
+        indicator.refresh();
+        indicator.refresh();
+        assertEquals(1, calls.get());
+
+        // once it returns the next refresh probes again, its late answer is dropped
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.get() < 2 && System.nanoTime() < deadline) {
+            indicator.refresh();
+            Thread.sleep(5);
+        }
+        assertEquals(2, calls.get());
+        await(indicator, health -> health.getStatus().equals(Status.UP));
+    }
+
+    @Test
+    public void probesAreScheduledWhileRunning() {
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        ScheduledFuture<?> task = mock(ScheduledFuture.class);
+        doReturn(task).when(scheduler).scheduleWithFixedDelay(any(), anyLong(), anyLong(), any());
+        AtomicInteger calls = new AtomicInteger();
+        CachedHealthIndicator indicator = new CachedHealthIndicator(() -> {
+            calls.incrementAndGet();
+            return Health.up().build();
+        }, scheduler, Runnable::run, INTERVAL, Duration.ofSeconds(5));
+
+        assertFalse(indicator.isRunning());
+        indicator.start();
+        assertTrue(indicator.isRunning());
+
+        // right away, then the interval after each probe ends
+        ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).scheduleWithFixedDelay(refresh.capture(), eq(0L), eq(INTERVAL.toMillis()), eq(TimeUnit.MILLISECONDS));
+        refresh.getValue().run();
+        assertEquals(1, calls.get());
+        assertEquals(Status.UP, indicator.health().getStatus());
+
+        indicator.stop();
+        verify(task).cancel(false);
+        assertFalse(indicator.isRunning());
+    }
+
+    private static void await(CachedHealthIndicator indicator, Predicate<Health> condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.test(indicator.health()) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.test(indicator.health()), indicator.health().toString());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.klustr.spring.health;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.security.oauth2.server.resource.introspection.BadOpaqueTokenException;
+import org.springframework.security.oauth2.server.resource.introspection.OAuth2IntrospectionException;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IntrospectionHealthProbeTest {
+
+    private final IntrospectionHealthProbe probe = new IntrospectionHealthProbe(token -> {
+        throw new BadOpaqueTokenException("Provided token isn't active");
+    }, Duration.ofMillis(100));
+
+    @Test
+    public void firstAnswerSetsTheAverage() {
+        Health health = probe.record(80);
+
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals(80L, health.getDetails().get("latencyMs"));
+        assertEquals(80L, health.getDetails().get("averageLatencyMs"));
+        assertEquals(100L, health.getDetails().get("degradedLatencyMs"));
+    }
+
+    @Test
+    public void averageIsExponentiallyWeighted() {
+        probe.record(50);
+        // 0.3 * 200 + 0.7 * 50
+        assertEquals(95L, probe.record(200).getDetails().get("averageLatencyMs"));
+        // 0.3 * 200 + 0.7 * 95 = 126.5
+        assertEquals(127L, probe.record(200).getDetails().get("averageLatencyMs"));
+        // 0.3 * 0 + 0.7 * 126.5 = 88.55
+        assertEquals(89L, probe.record(0).getDetails().get("averageLatencyMs"));
+    }
+
+    @Test
+    public void degradedOnlyAboveTheThreshold() {
+        assertEquals(Status.UP, probe.record(100).getStatus());
+        // one slow answer does not flip it, 0.3 * 150 + 0.7 * 100 = 115 does
+        assertEquals(HealthProbe.DEGRADED, probe.record(150).getStatus());
+
+        IntrospectionHealthProbe fresh = new IntrospectionHealthProbe(token -> null, Duration.ofMillis(100));
+        assertEquals(Status.UP, fresh.record(10).getStatus());
+        assertEquals(Status.UP, fresh.record(300).getStatus());
+        assertEquals(HealthProbe.DEGRADED, fresh.record(300).getStatus());
+    }
+
+    @Test
+    public void inactiveProbeTokenIsAnAnswer() {
+        assertEquals(Status.UP, probe.probe().getStatus());
+
+        IntrospectionHealthProbe unreachable = new IntrospectionHealthProbe(token -> {
+            throw new OAuth2IntrospectionException("Connection refused");
+        }, Duration.ofMillis(100));
+        // CachedHealthIndicator reports it down
+        assertThrows(OAuth2IntrospectionException.class, unreachable::probe);
+    }
+}
@@ -0,0 +1,57 @@
+package io.klustr.spring.health;
+
+import io.klustr.spring.oauth.CacheOpaqueTokenIntrospector;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TokenCacheHealthProbeTest {
+
+    /**
+     * Introspects every token as active, without an introspection endpoint.
+     */
+    private final CacheOpaqueTokenIntrospector introspector = new CacheOpaqueTokenIntrospector("http://localhost/introspect", null, null, null, 300, (uri, method) -> {
+        MockClientHttpResponse response = new MockClientHttpResponse(
+                "{\"active\":true,\"sub\":\"alice\",\"scope\":\"profile\"}".getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        MockClientHttpRequest request = new MockClientHttpRequest(method, uri);
+        request.setResponse(response);
+        return request;
+    });
+
+    @Test
+    public void degradedPastMaxEntries() {
+        TokenCacheHealthProbe probe = new TokenCacheHealthProbe(introspector, 2);
+        assertEquals(Status.UP, probe.probe().getStatus());
+
+        introspector.introspect("one");
+        introspector.introspect("two");
+        Health full = probe.probe();
+        assertEquals(Status.UP, full.getStatus());
+        assertEquals(2L, full.getDetails().get("size"));
+
+        introspector.introspect("three");
+        assertEquals(HealthProbe.DEGRADED, probe.probe().getStatus());
+    }
+
+    @Test
+    public void hitRateIsReported() {
+        TokenCacheHealthProbe probe = new TokenCacheHealthProbe(introspector, 100);
+        introspector.introspect("one");
+        introspector.introspect("one");
+        introspector.introspect("one");
+        introspector.introspect("two");
+
+        Health health = probe.probe();
+        assertEquals(0.5, health.getDetails().get("hitRate"));
+        assertEquals(0L, health.getDetails().get("evictions"));
+    }
+}
@@ -0,0 +1,43 @@
+package io.klustr.spring.oauth;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PreAuthorizeRequirementTest {
+
+    @Test
+    public void andBetweenTermsIsSplit() {
+        PreAuthorizeRequirement requirement = PreAuthorizeRequirement.compile(
+                "hasAuthority('SCOPE_a')  AND hasAnyAuthority('SCOPE_b', 'SCOPE_c')");
+
+        assertEquals(List.of("SCOPE_a", "SCOPE_b", "SCOPE_c"), requirement.authorities());
+        assertTrue(requirement.test(AuthoritySet.of(List.of("SCOPE_a", "SCOPE_c"))));
+        assertFalse(requirement.test(AuthoritySet.of(List.of("SCOPE_a"))));
+    }
+
+    @Test
+    public void andInsideQuotesIsPartOfTheName() {
+        PreAuthorizeRequirement requirement = PreAuthorizeRequirement.compile("hasAuthority('read and write')");
+
+        assertEquals(List.of("read and write"), requirement.authorities());
+        assertTrue(requirement.test(AuthoritySet.of(List.of("read and write"))));
+        assertFalse(requirement.test(AuthoritySet.of(List.of("read", "write"))));
+
+        assertEquals(List.of("a and b", "c", "d"),
+                PreAuthorizeRequirement.compile("hasAnyAuthority('a and b', 'c') and hasAuthority('d')").authorities());
+    }
+
+    @Test
+    public void otherExpressionsAreLeftToSpel() {
+        assertNull(PreAuthorizeRequirement.compile("hasAuthority('a') or hasAuthority('b')"));
+        assertNull(PreAuthorizeRequirement.compile("hasAuthority('a and b) and hasAuthority('c')"));
+        assertNull(PreAuthorizeRequirement.compile("hasAuthority('it''s')"));
+        assertNull(PreAuthorizeRequirement.compile("hasAuthority('a') and and hasAuthority('b')"));
+    }
+}
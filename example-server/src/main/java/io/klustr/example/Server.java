@@ -3,18 +3,25 @@ package io.klustr.example;
 import io.klustr.example.config.HealthCheck;
 import io.klustr.example.config.StandardSecurityConfiguration;
 import io.klustr.example.services.HelloWorldService;
+import io.klustr.spring.health.HealthProbeConfiguration;
+import io.klustr.spring.config.StandardizedApiConfigurer;
 import io.klustr.spring.oauth.OpaqueTokenSecurityConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
-import org.springframework.context.annotation.ImportResource;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @ComponentScan(basePackageClasses = {
         OpaqueTokenSecurityConfiguration.class,
+        StandardizedApiConfigurer.class,
+        HealthProbeConfiguration.class,
         StandardSecurityConfiguration.class,
         Server.class,
         HealthCheck.class,
@@ -23,18 +30,45 @@ import org.springframework.scheduling.annotation.EnableScheduling;
         HelloWorldService.class,
 })
 @EnableScheduling
-@ImportResource("classpath:spring.xml")
 public class Server {
     private static final Logger log = LoggerFactory.getLogger(Server.class);
 
     public static void main(String[] args) {
         try {
             log.info("Starting application server...");
-            SpringApplication.run(Server.class, args);
+            SpringApplication application = new SpringApplication(Server.class);
+            if (AotDetector.useGeneratedArtifacts()) {
+                application.addInitializers(context -> context.addBeanFactoryPostProcessor(new AotRequestTransformerFix()));
+            }
+            application.run(args);
+        } catch (SpringApplication.AbandonedRunException e) {
+            // AOT processing stops the application on purpose once the context is prepared
+            throw e;
         } catch (Exception e) {
             log.error("Exception", e);
             e.printStackTrace();
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * spring-security-config 6.1 registers mvcHandlerMappingIntrospectorRequestTransformer
+     * from a registry post processor, which also runs under AOT on top of the generated
+     * definition of the same bean. The generated one is removed first so it can be
+     * registered again, without allowing any other definition to be overridden.
+     */
+    private static class AotRequestTransformerFix implements BeanDefinitionRegistryPostProcessor {
+        private static final String BEAN_NAME = "mvcHandlerMappingIntrospectorRequestTransformer";
+
+        @Override
+        public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) {
+            if (registry.containsBeanDefinition(BEAN_NAME)) {
+                registry.removeBeanDefinition(BEAN_NAME);
+            }
+        }
+
+        @Override
+        public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        }
+    }
 }
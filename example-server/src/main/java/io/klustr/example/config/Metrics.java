@@ -1,13 +1,24 @@
 package io.klustr.example.config;
 
 import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCustomizer;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 
-
+@Configuration
 public class Metrics {
+    // the environment this instance runs in, no tag when empty
+    @Value("${example.metrics.env:}")
+    String env;
+
     @Bean
     MeterRegistryCustomizer<MeterRegistry> metricsCommonTags() {
-        return registry -> registry.config().commonTags("env", "test");
+        return registry -> {
+            if (StringUtils.isNotBlank(env)) {
+                registry.config().commonTags("env", env);
+            }
+        };
     }
 }
@@ -1,5 +1,8 @@
 package io.klustr.example.config;
 
+import io.klustr.spring.config.PathTrieRequestMatcher;
+import io.klustr.spring.config.StandardizedApiConfigurer;
+import io.klustr.spring.oauth.EnableAuthorityMethodSecurity;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -8,7 +11,9 @@ import org.springframework.security.config.annotation.web.configuration.EnableWe
 import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
 
 @Configuration
-@EnableMethodSecurity(prePostEnabled = true)
+// the @PreAuthorize interceptors come from @EnableAuthorityMethodSecurity, which compiles the scope checks
+@EnableMethodSecurity(prePostEnabled = false)
+@EnableAuthorityMethodSecurity
 @EnableWebSecurity
 public class StandardSecurityConfiguration {
 
@@ -16,46 +21,56 @@ public class StandardSecurityConfiguration {
     public WebSecurityCustomizer appSecurity() {
         return (web) -> web
                 .ignoring()
-                .requestMatchers(
-                        "/api**",
-                        "/api/**"
-                );
+                .requestMatchers(new PathTrieRequestMatcher()
+                        .trailingSlashMatch(StandardizedApiConfigurer.TRAILING_SLASH_MATCH)
+                        .add("/api**", "/api/**"));
     }
 
     @Bean(name = "StandardSecurityConfiguration")
     public WebSecurityCustomizer standardSecurity() {
+        PathTrieRequestMatcher publicEndpoints = publicEndpoints();
         return (web) -> web
                 .ignoring()
-                .requestMatchers(HttpMethod.GET, "/metrics/**")
-                .requestMatchers(HttpMethod.GET, "/actuator*")
-                .requestMatchers(HttpMethod.GET, "/actuator/**")
+                .requestMatchers(publicEndpoints);
+    }
+
+    // one matcher walking the path once, rather than one per pattern
+    static PathTrieRequestMatcher publicEndpoints() {
+        return new PathTrieRequestMatcher()
+                .trailingSlashMatch(StandardizedApiConfigurer.TRAILING_SLASH_MATCH)
+                .add(HttpMethod.GET, "/metrics/**")
+                .add(HttpMethod.GET, "/actuator*")
+                .add(HttpMethod.GET, "/actuator/**")
+
+                .add(HttpMethod.GET, "/i18n/**")
+                .add(HttpMethod.GET, "/error/**")
 
-                .requestMatchers(HttpMethod.GET, "/i18n/**")
-                .requestMatchers(HttpMethod.GET, "/error/**")
+                // STOMP handshake, the token is checked on CONNECT
+                .add(HttpMethod.GET, "/example/ws")
 
                 // api docs
-                .requestMatchers(HttpMethod.GET, "/swagger-ui/**")
-                .requestMatchers(HttpMethod.GET, "/api-docs/**")
-                .requestMatchers(HttpMethod.GET, "/api-docs.yaml/**")
-                .requestMatchers(HttpMethod.GET, "/api-docs.json/**")
-                .requestMatchers(HttpMethod.GET, "/v3/api-docs/**")
-                .requestMatchers(HttpMethod.GET, "/v3/api-docs.yaml")
-                .requestMatchers(HttpMethod.GET, "/v3/api-docs.yaml/**")
-                .requestMatchers(HttpMethod.GET, "/v3/api-docs.json/**")
-                .requestMatchers(HttpMethod.GET, "/v3/api-docs.yml")
-                .requestMatchers(HttpMethod.GET, "/v3/api-docs.json")
-                .requestMatchers(HttpMethod.GET, "/v3/api-docs.yaml/everything")
-
-
-                .requestMatchers(HttpMethod.POST, "/swagger/*")
-                .requestMatchers(HttpMethod.POST, "/api-docs/*")
-                .requestMatchers(HttpMethod.POST, "/error/*")
-                .requestMatchers(HttpMethod.PUT, "/swagger/*")
-                .requestMatchers(HttpMethod.PUT, "/api-docs/*")
-                .requestMatchers(HttpMethod.PUT, "/error/*")
-                .requestMatchers(HttpMethod.DELETE, "/swagger/*")
-                .requestMatchers(HttpMethod.DELETE, "/api-docs/*")
-                .requestMatchers(HttpMethod.DELETE, "/error/*");
+                .add(HttpMethod.GET, "/swagger-ui/**")
+                .add(HttpMethod.GET, "/api-docs/**")
+                .add(HttpMethod.GET, "/api-docs.yaml/**")
+                .add(HttpMethod.GET, "/api-docs.json/**")
+                .add(HttpMethod.GET, "/v3/api-docs/**")
+                .add(HttpMethod.GET, "/v3/api-docs.yaml")
+                .add(HttpMethod.GET, "/v3/api-docs.yaml/**")
+                .add(HttpMethod.GET, "/v3/api-docs.json/**")
+                .add(HttpMethod.GET, "/v3/api-docs.yml")
+                .add(HttpMethod.GET, "/v3/api-docs.json")
+                .add(HttpMethod.GET, "/v3/api-docs.yaml/everything")
+
+
+                .add(HttpMethod.POST, "/swagger/*")
+                .add(HttpMethod.POST, "/api-docs/*")
+                .add(HttpMethod.POST, "/error/*")
+                .add(HttpMethod.PUT, "/swagger/*")
+                .add(HttpMethod.PUT, "/api-docs/*")
+                .add(HttpMethod.PUT, "/error/*")
+                .add(HttpMethod.DELETE, "/swagger/*")
+                .add(HttpMethod.DELETE, "/api-docs/*")
+                .add(HttpMethod.DELETE, "/error/*");
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package io.klustr.example.config;
+
+import io.klustr.example.services.HeartRateStream;
+import io.klustr.spring.U;
+import io.klustr.spring.oauth.StompBearerTokenInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * STOMP over WebSocket at {@code /example/ws}.
+ * <p>
+ * Browsers cannot set headers on the handshake so the endpoint itself is public, the
+ * bearer token goes in the {@code Authorization} header of the {@code CONNECT} frame.
+ */
+@Configuration
+@EnableWebSocketMessageBroker
+public class WebSocketConfiguration implements WebSocketMessageBrokerConfigurer {
+
+    private final OpaqueTokenIntrospector introspector;
+    private final HeartRateStream heartRateStream;
+
+    @Value("${web.cors.allowed-origins:*}")
+    List<String> allowedOrigins;
+
+    @Value("${web.websocket.send-time-limit:10s}")
+    Duration sendTimeLimit;
+
+    @Value("${web.websocket.send-buffer-size:512KB}")
+    DataSize sendBufferSize;
+
+    public WebSocketConfiguration(OpaqueTokenIntrospector introspector, HeartRateStream heartRateStream) {
+        this.introspector = introspector;
+        this.heartRateStream = heartRateStream;
+    }
+
+    @Override
+    public void registerStompEndpoints(StompEndpointRegistry registry) {
+        registry.addEndpoint("/example/ws")
+                .setAllowedOriginPatterns(allowedOrigins.toArray(new String[0]));
+    }
+
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry registry) {
+        registry.enableSimpleBroker("/queue");
+        registry.setApplicationDestinationPrefixes("/app");
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(stompAuthentication());
+    }
+
+    /**
+     * Clients may only subscribe to their own queues, the simple broker behind them
+     * serves {@code /queue} for every user and a subscription like {@code /queue/**}
+     * would receive all of it.
+     */
+    StompBearerTokenInterceptor stompAuthentication() {
+        return new StompBearerTokenInterceptor(introspector)
+                .allowSubscriptions("/user/queue/**")
+                .requireAuthority("/user/queue/**", "SCOPE_fitness.heart_rate.read");
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(heartRateStream);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // last resort for a client that stops reading altogether, it is disconnected
+        registration.setSendTimeLimit((int) sendTimeLimit.toMillis());
+        registration.setSendBufferSizeLimit((int) sendBufferSize.toBytes());
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(U.getObjectMapper());
+        messageConverters.add(converter);
+        // keep the string and byte[] converters behind it
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package io.klustr.example.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportResource;
+
+/**
+ * Bean definitions from {@code spring.xml}. Parsing the XML (and loading its schemas)
+ * is paid on every start, so it is only imported when {@code example.xml-config.enabled}
+ * is true. It is evaluated at build time under AOT.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "example.xml-config", name = "enabled", havingValue = "true", matchIfMissing = true)
+@ImportResource("classpath:spring.xml")
+public class XmlConfiguration {
+}
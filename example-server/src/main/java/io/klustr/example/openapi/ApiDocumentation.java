@@ -7,10 +7,12 @@ import io.swagger.v3.oas.annotations.enums.SecuritySchemeType;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.models.parameters.Parameter;
 import io.klustr.spring.oauth.OAuthCredentialType;
+import io.klustr.spring.oauth.PreAuthorizeRequirement;
 import org.springdoc.core.customizers.OperationCustomizer;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -106,44 +108,52 @@ public class ApiDocumentation {
             }
 
             if (preAuthorizeAnnotation.isPresent()) {
-                String perms = (preAuthorizeAnnotation.get()).value().replaceAll("hasAuthority|\\(|\\)|\\'", "");
-
-                boolean isScope = false;
-                if (perms.startsWith("SCOPE_")) {
-                    perms = perms.replace("SCOPE_","");
-                    isScope = true;
-                }
+                // the authorities the compiled check tests, or the bare expression if it is not compiled
+                String expression = preAuthorizeAnnotation.get().value();
+                PreAuthorizeRequirement requirement = PreAuthorizeRequirement.compile(expression);
+                List<String> required = requirement != null
+                        ? requirement.authorities()
+                        : List.of(expression.replaceAll("hasAuthority|\\(|\\)|\\'", ""));
+
+                List<String> permissions = Lists.newArrayList();
+                for (String perms : required) {
+                    boolean isScope = false;
+                    if (perms.startsWith("SCOPE_")) {
+                        perms = perms.replace("SCOPE_","");
+                        isScope = true;
+                    }
 
-                if (isScope) {
-                    sb.append("""
+                    if (isScope) {
+                        sb.append("""
                                 
-                            <div class="callout callout-warning" style="margin: 1em 0em 1em 0em">
-                            <p>
-                            🔒 <strong>Consent: <span style="font-family: monospace">%s</span></strong> is required in order for the call to succeed. Ensure that you have the consent
-                            approval for the user or this call will fail.
-                            </p>
-                            </div>
+                                <div class="callout callout-warning" style="margin: 1em 0em 1em 0em">
+                                <p>
+                                🔒 <strong>Consent: <span style="font-family: monospace">%s</span></strong> is required in order for the call to succeed. Ensure that you have the consent
+                                approval for the user or this call will fail.
+                                </p>
+                                </div>
                                 
-                            """.formatted(perms));
-                } else {
-                    sb.append("""
+                                """.formatted(perms));
+                    } else {
+                        sb.append("""
                                 
-                            <div class="callout callout-warning" style="margin: 1em 0em 1em 0em">
-                            <p>
-                            🔒 <strong>Permission: <span style="font-family: monospace">%s</span></strong> is required in order for the call to succeed. Configure the OIDC client permissions to add these permissions.
-                            </p>
-                            </div>
+                                <div class="callout callout-warning" style="margin: 1em 0em 1em 0em">
+                                <p>
+                                🔒 <strong>Permission: <span style="font-family: monospace">%s</span></strong> is required in order for the call to succeed. Configure the OIDC client permissions to add these permissions.
+                                </p>
+                                </div>
                                 
-                            """.formatted(perms));
+                                """.formatted(perms));
+                    }
+                    permissions.add(perms);
                 }
 
-
                 // add the extension for metadata extraction
                 Map<String, Object> extensions = operation.getExtensions();
                 if (extensions == null) {
                     operation.setExtensions(Maps.newHashMap());
                 }
-                operation.getExtensions().put("permissions", perms);
+                operation.getExtensions().put("permissions", String.join(",", permissions));
             }
 
             operation.setDescription(sb.toString());
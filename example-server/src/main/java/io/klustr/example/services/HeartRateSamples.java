@@ -0,0 +1,7 @@
+package io.klustr.example.services;
+
+/**
+ * Samples sent by a device, {@code times} in epoch seconds and {@code values} in bpm.
+ */
+public record HeartRateSamples(long[] times, int[] values) {
+}
@@ -0,0 +1,128 @@
+package io.klustr.example.services;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import io.klustr.spring.U;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * One page of a heart rate series, streamed to the client a chunk at a time.
+ * <p>
+ * Samples are read from the {@link Source} into a reused {@code int[]} and written
+ * straight to the output with a {@link JsonGenerator}, so neither boxed values nor
+ * the full JSON document are ever held: memory per request is the chunk, whatever
+ * the requested range.
+ */
+public class HeartRateSeries {
+
+    private static final int CHUNK = 4096;
+
+    /**
+     * Where samples come from, one value per step, 0 when there is no sample.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * @param fromSecond  Epoch second of the first sample.
+         * @param stepSeconds Seconds between samples.
+         * @param into        Buffer to fill from index 0.
+         * @param count       How many samples to read.
+         */
+        void read(long fromSecond, int stepSeconds, int[] into, int count);
+    }
+
+    private final Source source;
+    private final long from;
+    private final int step;
+    private final int size;
+    private final Long next;
+
+    /**
+     * @param source The samples.
+     * @param from   Epoch second of the first sample of this page.
+     * @param to     Epoch second the whole range ends at (exclusive).
+     * @param step   Seconds between samples.
+     * @param limit  The most samples in one page.
+     */
+    public HeartRateSeries(Source source, long from, long to, int step, int limit) {
+        this.source = source;
+        this.from = from;
+        this.step = step;
+
+        long remaining = Math.max(0, (to - from + step - 1) / step);
+        this.size = (int) Math.min(remaining, limit);
+        this.next = remaining > limit ? from + (long) limit * step : null;
+    }
+
+    /**
+     * @return The cursor of the following page or null on the last one.
+     */
+    public String nextCursor() {
+        return next == null ? null : encodeCursor(next);
+    }
+
+    public static String encodeCursor(long epochSecond) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Long.toString(epochSecond).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public static long decodeCursor(String cursor) {
+        return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes {@code {"start":..,"resolution":..,"values":[..],"next":..}}.
+     */
+    public void writeJson(OutputStream out) throws IOException {
+        try (JsonGenerator gen = U.getObjectMapper().getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeNumberField("start", from);
+            gen.writeNumberField("resolution", step);
+            gen.writeArrayFieldStart("values");
+            int[] buf = new int[Math.min(CHUNK, Math.max(size, 1))];
+            for (int offset = 0; offset < size; offset += buf.length) {
+                int n = Math.min(buf.length, size - offset);
+                source.read(from + (long) offset * step, step, buf, n);
+                for (int i = 0; i < n; i++) {
+                    gen.writeNumber(buf[i]);
+                }
+            }
+            gen.writeEndArray();
+            if (next != null) {
+                gen.writeStringField("next", nextCursor());
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes one {@code {"t":..,"bpm":..}} line per sample, samples without a value are skipped.
+     */
+    public void writeNdjson(OutputStream out) throws IOException {
+        try (JsonGenerator gen = U.getObjectMapper().getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.setRootValueSeparator(new SerializedString("\n"));
+            int[] buf = new int[Math.min(CHUNK, Math.max(size, 1))];
+            for (int offset = 0; offset < size; offset += buf.length) {
+                int n = Math.min(buf.length, size - offset);
+                long start = from + (long) offset * step;
+                source.read(start, step, buf, n);
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == 0) {
+                        continue;
+                    }
+                    gen.writeStartObject();
+                    gen.writeNumberField("t", start + (long) i * step);
+                    gen.writeNumberField("bpm", buf[i]);
+                    gen.writeEndObject();
+                }
+                // hand each chunk to the client as it is produced
+                gen.flush();
+            }
+            gen.writeRaw('\n');
+        }
+    }
+}
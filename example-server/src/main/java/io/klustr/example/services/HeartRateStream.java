@@ -0,0 +1,262 @@
+package io.klustr.example.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes a user's heart rate to their STOMP subscriptions of {@value #DESTINATION}.
+ * <p>
+ * Samples are not sent one by one but collected per session and flushed as one
+ * {@link HeartRateBatch} every {@code web.websocket.heart-rate.batch-interval}. The
+ * per session buffer is bounded: while a session still has a batch waiting in the
+ * outbound channel nothing more is sent to it, its new samples are coalesced into the
+ * next batch and, once the buffer is full, the oldest are dropped and counted in
+ * {@link HeartRateBatch#dropped()}. A slow client therefore costs a fixed amount of
+ * memory and never holds back the others. A batch that is never reported handled,
+ * because it was dropped on the way, stops holding back its session after
+ * {@code web.websocket.send-time-limit}.
+ */
+@Component
+public class HeartRateStream implements ExecutorChannelInterceptor, SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(HeartRateStream.class);
+
+    public static final String DESTINATION = "/user/queue/heartrate";
+
+    private static final String QUEUE = "/queue/heartrate";
+    private static final String BATCH_HEADER = "heartRateBatch";
+
+    /**
+     * Samples since the previous batch, {@code times} in epoch seconds.
+     */
+    public record HeartRateBatch(long[] times, int[] values, int dropped) {
+    }
+
+    private final ObjectProvider<SimpMessageSendingOperations> messaging;
+    private final ObjectProvider<TaskScheduler> scheduler;
+
+    private final Map<String, SessionBuffer> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Set<SessionBuffer>> users = new ConcurrentHashMap<>();
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+    private volatile boolean running;
+
+    @Value("${web.websocket.heart-rate.batch-interval:1s}")
+    Duration batchInterval;
+
+    @Value("${web.websocket.heart-rate.buffer-size:120}")
+    int bufferSize;
+
+    @Value("${web.websocket.send-time-limit:10s}")
+    Duration sendTimeLimit;
+
+    public HeartRateStream(ObjectProvider<SimpMessageSendingOperations> messaging,
+                           @Qualifier("messageBrokerTaskScheduler") ObjectProvider<TaskScheduler> scheduler) {
+        this.messaging = messaging;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Hands a sample to every session of the user subscribed to the heart rate.
+     */
+    public void publish(String user, long epochSecond, int bpm) {
+        Set<SessionBuffer> buffers = users.get(user);
+        if (buffers == null) {
+            return;
+        }
+        for (SessionBuffer buffer : buffers) {
+            buffer.add(epochSecond, bpm);
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Principal user = event.getUser();
+        if (user == null || !DESTINATION.equals(accessor.getDestination())) {
+            return;
+        }
+
+        SessionBuffer buffer = new SessionBuffer(accessor.getSessionId(), user.getName(), accessor.getSubscriptionId(), bufferSize);
+        SessionBuffer previous = sessions.put(buffer.sessionId, buffer);
+        if (previous != null) {
+            remove(previous);
+        }
+        users.computeIfAbsent(buffer.user, u -> ConcurrentHashMap.newKeySet()).add(buffer);
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        SessionBuffer buffer = sessions.get(accessor.getSessionId());
+        if (buffer != null && buffer.subscriptionId.equals(accessor.getSubscriptionId())) {
+            unsubscribe(event);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        unsubscribe(event);
+    }
+
+    private void unsubscribe(AbstractSubProtocolEvent event) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        SessionBuffer buffer = sessionId == null ? null : sessions.remove(sessionId);
+        if (buffer != null) {
+            remove(buffer);
+        }
+    }
+
+    private void remove(SessionBuffer buffer) {
+        users.computeIfPresent(buffer.user, (u, buffers) -> {
+            buffers.remove(buffer);
+            return buffers.isEmpty() ? null : buffers;
+        });
+    }
+
+    private void flush() {
+        SimpMessageSendingOperations template = messaging.getObject();
+        long now = System.nanoTime();
+        for (SessionBuffer buffer : sessions.values()) {
+            if (buffer.inFlight.get() > 0) {
+                if (now - buffer.sentAt < sendTimeLimit.toNanos()) {
+                    // the previous batch has not left yet, keep collecting
+                    continue;
+                }
+                // never handled, it was dropped before reaching the session
+                buffer.inFlight.set(0);
+            }
+            HeartRateBatch batch = buffer.drain();
+            if (batch == null) {
+                continue;
+            }
+
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            headers.setSessionId(buffer.sessionId);
+            headers.setHeader(BATCH_HEADER, Boolean.TRUE);
+            headers.setLeaveMutable(true);
+
+            buffer.sentAt = now;
+            buffer.inFlight.incrementAndGet();
+            try {
+                template.convertAndSendToUser(buffer.user, QUEUE, batch, headers.getMessageHeaders());
+            } catch (RuntimeException e) {
+                // the other sessions still get their batch
+                buffer.inFlight.set(0);
+                log.warn("Could not send heart rate batch to session {}", buffer.sessionId, e);
+            }
+        }
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (message.getHeaders().containsKey(BATCH_HEADER)) {
+            SessionBuffer buffer = sessions.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+            if (buffer != null) {
+                // may arrive after the batch was given up on
+                buffer.inFlight.updateAndGet(n -> Math.max(0, n - 1));
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        TaskScheduler taskScheduler = scheduler.getObject();
+        tasks.add(taskScheduler.scheduleAtFixedRate(this::flush, batchInterval));
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        tasks.forEach(task -> task.cancel(false));
+        tasks.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Ring buffer of the samples not yet sent to one session, overwriting the oldest when full.
+     */
+    private static final class SessionBuffer {
+        private final String sessionId;
+        private final String user;
+        private final String subscriptionId;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long sentAt;
+
+        private final long[] times;
+        private final int[] values;
+        private int head;
+        private int count;
+        private int dropped;
+
+        SessionBuffer(String sessionId, String user, String subscriptionId, int capacity) {
+            this.sessionId = sessionId;
+            this.user = user;
+            this.subscriptionId = subscriptionId;
+            this.times = new long[capacity];
+            this.values = new int[capacity];
+        }
+
+        synchronized void add(long time, int value) {
+            int tail = (head + count) % times.length;
+            times[tail] = time;
+            values[tail] = value;
+            if (count == times.length) {
+                head = (head + 1) % times.length;
+                dropped++;
+            } else {
+                count++;
+            }
+        }
+
+        synchronized HeartRateBatch drain() {
+            if (count == 0) {
+                return null;
+            }
+            long[] batchTimes = new long[count];
+            int[] batchValues = new int[count];
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) % times.length;
+                batchTimes[i] = times[index];
+                batchValues[i] = values[index];
+            }
+            HeartRateBatch batch = new HeartRateBatch(batchTimes, batchValues, dropped);
+            head = 0;
+            count = 0;
+            dropped = 0;
+            return batch;
+        }
+    }
+}
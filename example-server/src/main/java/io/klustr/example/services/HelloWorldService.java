@@ -1,20 +1,33 @@
 package io.klustr.example.services;
 
-import com.google.common.collect.Lists;
-import io.klustr.spring.U;
+import com.google.common.primitives.Ints;
+import io.klustr.example.store.Aggregate;
+import io.klustr.example.store.HeartRateStore;
+import io.klustr.spring.config.CachedResponse;
+import io.klustr.spring.config.RateLimit;
 import io.klustr.spring.oauth.OAuthCredentialType;
 import io.klustr.spring.oauth.PrincipleUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.OAuth2AuthenticatedPrincipal;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Instant;
 import java.util.List;
 
 @RestController
@@ -23,8 +36,15 @@ import java.util.List;
 @Tag(name = "Example API", description = "Simple API example in Java.")
 public class HelloWorldService {
 
-    public HelloWorldService() {
+    // most samples a single series page may ask for, a day at full resolution
+    private static final int MAX_LIMIT = 86_400;
 
+    private final HeartRateStore store;
+    private final HeartRateStream stream;
+
+    public HelloWorldService(HeartRateStore store, HeartRateStream stream) {
+        this.store = store;
+        this.stream = stream;
     }
 
     @GetMapping("/hello")
@@ -35,6 +55,7 @@ public class HelloWorldService {
     )
     // user must have consent for this API to access the user first and last name
     @PreAuthorize("hasAuthority('SCOPE_profile')")
+    @CachedResponse(ttl = 60)
     public String sayHello(@AuthenticationPrincipal OAuth2AuthenticatedPrincipal oauth) {
         String givenName = PrincipleUtils.tryGetField("given_name", oauth);
         String familyName = PrincipleUtils.tryGetField("family_name", oauth);
@@ -44,18 +65,130 @@ public class HelloWorldService {
     @GetMapping("/heartrate")
     @Operation(summary = "Get Heart Rate",
             operationId = "example2",
-            description = "Will return a mock heart rate collection.",
+            description = "Will return the heart rate of the last minute, one value per second, 0 where there is no sample.",
             security = @SecurityRequirement(name = OAuthCredentialType.USER_TO_SERVICE)
     )
     // user must have consent for this API to access their heart rate information
     @PreAuthorize("hasAuthority('SCOPE_fitness.heart_rate.read')")
+    @RateLimit(permitsPerSecond = 5, burst = 20)
     public List<Integer> getUserHeartRate(@AuthenticationPrincipal OAuth2AuthenticatedPrincipal oauth) {
+        // will only be allowed to be called if the user gave consent
+        int[] hbs = new int[60];
+        store.read(oauth.getName(), Instant.now().getEpochSecond() - hbs.length + 1, 1, hbs, hbs.length, Aggregate.AVG);
+        return Ints.asList(hbs);
+    }
+
+    @PostMapping(value = "/heartrate", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Record Heart Rate",
+            operationId = "example5",
+            description = """
+                    Will store the heart rate samples of the user, `times` in epoch seconds and `values` in bpm.
+                    Times must be within the raw retention and not ahead of the server clock by more than
+                    `max-clock-skew`, values from 1 to 255 bpm, or the request is rejected. Samples for a second
+                    that already has one are ignored.
+                    """,
+            security = @SecurityRequirement(name = OAuthCredentialType.USER_TO_SERVICE)
+    )
+    @PreAuthorize("hasAuthority('SCOPE_fitness.heart_rate.write')")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void recordUserHeartRate(@AuthenticationPrincipal OAuth2AuthenticatedPrincipal oauth,
+                                    @RequestBody HeartRateSamples samples) {
+        if (samples.times() == null || samples.values() == null || samples.times().length != samples.values().length) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "times and values must have the same length");
+        }
+
+        String userId = oauth.getName();
+        boolean[] stored;
+        try {
+            stored = store.append(userId, samples.times(), samples.values());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.INSUFFICIENT_STORAGE, e.getMessage());
+        }
+        for (int i = 0; i < stored.length; i++) {
+            if (stored[i]) {
+                stream.publish(userId, samples.times()[i], samples.values()[i]);
+            }
+        }
+    }
+
+    @GetMapping(value = "/heartrate/series", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Get Heart Rate Series",
+            operationId = "example3",
+            description = """
+                    Will return the heart rate samples between `from` and `to` at the given `resolution` (seconds)
+                    as a JSON object, 0 where there is no sample. Each value is the `aggregate` (MIN, MAX or AVG)
+                    of the samples in its step. Ranges larger than `limit` (at most 86400) samples are paged, pass the returned `next`
+                    (also in the `X-Next-Cursor` header) as `cursor` to get the following page.
+                    """,
+            security = @SecurityRequirement(name = OAuthCredentialType.USER_TO_SERVICE)
+    )
+    @PreAuthorize("hasAuthority('SCOPE_fitness.heart_rate.read')")
+    @RateLimit(permitsPerSecond = 5, burst = 20)
+    public ResponseEntity<StreamingResponseBody> getUserHeartRateSeries(@AuthenticationPrincipal OAuth2AuthenticatedPrincipal oauth,
+                                                                        @RequestParam(name = "from", required = false) Instant from,
+                                                                        @RequestParam(name = "to", required = false) Instant to,
+                                                                        @RequestParam(name = "resolution", defaultValue = "1") int resolution,
+                                                                        @RequestParam(name = "cursor", required = false) String cursor,
+                                                                        @RequestParam(name = "limit", defaultValue = "86400") int limit,
+                                                                        @RequestParam(name = "aggregate", defaultValue = "AVG") Aggregate aggregate) {
+        HeartRateSeries series = series(oauth, from, to, resolution, cursor, limit, aggregate);
+        return stream(series, MediaType.APPLICATION_JSON).body(series::writeJson);
+    }
+
+    @GetMapping(value = "/heartrate/series", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Stream Heart Rate Series",
+            operationId = "example4",
+            description = """
+                    Same as `example3` but as newline delimited JSON, one `{"t":..,"bpm":..}` per step with a sample.
+                    The cursor of the following page is in the `X-Next-Cursor` header.
+                    """,
+            security = @SecurityRequirement(name = OAuthCredentialType.USER_TO_SERVICE)
+    )
+    @PreAuthorize("hasAuthority('SCOPE_fitness.heart_rate.read')")
+    @RateLimit(permitsPerSecond = 5, burst = 20)
+    public ResponseEntity<StreamingResponseBody> getUserHeartRateSeriesNdjson(@AuthenticationPrincipal OAuth2AuthenticatedPrincipal oauth,
+                                                                              @RequestParam(name = "from", required = false) Instant from,
+                                                                              @RequestParam(name = "to", required = false) Instant to,
+                                                                              @RequestParam(name = "resolution", defaultValue = "1") int resolution,
+                                                                              @RequestParam(name = "cursor", required = false) String cursor,
+                                                                              @RequestParam(name = "limit", defaultValue = "86400") int limit,
+                                                                              @RequestParam(name = "aggregate", defaultValue = "AVG") Aggregate aggregate) {
+        HeartRateSeries series = series(oauth, from, to, resolution, cursor, limit, aggregate);
+        return stream(series, MediaType.APPLICATION_NDJSON).body(series::writeNdjson);
+    }
+
+    private HeartRateSeries series(OAuth2AuthenticatedPrincipal oauth, Instant from, Instant to, int resolution, String cursor, int limit, Aggregate aggregate) {
+        if (resolution < 1 || limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "resolution and limit must be positive");
+        }
+        if (limit > MAX_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be at most " + MAX_LIMIT);
+        }
+
+        long end = (to != null ? to : Instant.now()).getEpochSecond();
+        long start = from != null ? from.getEpochSecond() : end - 3600;
+        if (cursor != null) {
+            try {
+                start = HeartRateSeries.decodeCursor(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid cursor");
+            }
+        }
+
         // will only be allowed to be called if the user gave consent
         String userId = oauth.getName();
-        List<Integer> hbs = Lists.newArrayList();
-        for (int i=0;i<=60;i++) {
-            hbs.add(U.randomNumber(50,80));
+        return new HeartRateSeries((fromSecond, step, into, count) -> store.read(userId, fromSecond, step, into, count, aggregate),
+                start, end, resolution, limit);
+    }
+
+    private static ResponseEntity.BodyBuilder stream(HeartRateSeries series, MediaType contentType) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(contentType);
+        String next = series.nextCursor();
+        if (next != null) {
+            builder.header("X-Next-Cursor", next);
         }
-        return hbs;
+        return builder;
     }
 }
@@ -0,0 +1,10 @@
+package io.klustr.example.store;
+
+/**
+ * How the samples falling in one step of a range query are combined.
+ */
+public enum Aggregate {
+    MIN,
+    MAX,
+    AVG
+}
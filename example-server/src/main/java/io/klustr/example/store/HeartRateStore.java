@@ -0,0 +1,273 @@
+package io.klustr.example.store;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded store of the users' heart rate.
+ * <p>
+ * Every user gets a {@link SampleSeries} of fixed size: one byte per second for the raw
+ * retention, and 8 bytes per minute and per hour for the downsampled ones. The number
+ * of series is capped, so the memory the store can take is known upfront, about 440 KB
+ * per user with the defaults (3 days raw, 14 days of minutes, 90 days of hours). Unless
+ * set, the cap is as many series as fit in {@code heap-budget} of the max heap.
+ * <p>
+ * When a snapshot path is configured the store is written there periodically and on
+ * shutdown, and read back on startup.
+ */
+@Component
+public class HeartRateStore {
+    private static final Logger log = LoggerFactory.getLogger(HeartRateStore.class);
+
+    private static final int MAGIC = 0x48525453;
+    private static final int VERSION = 1;
+
+    // a bpm is stored as one unsigned byte, 0 meaning no sample
+    public static final int MIN_BPM = 1;
+    public static final int MAX_BPM = 255;
+
+    private final int rawCapacity;
+    private final int[] tierWidths;
+    private final int[] tierCapacities;
+    private final int maxSeries;
+    private final long maxClockSkew;
+    private final Path snapshot;
+
+    private final Map<String, SampleSeries> series = new ConcurrentHashMap<>();
+    // series held or being created, so concurrent first appends cannot exceed maxSeries
+    private final AtomicInteger reserved = new AtomicInteger();
+
+    /**
+     * @param rawRetention    How long 1 Hz samples are kept.
+     * @param minuteRetention How long per minute aggregates are kept.
+     * @param hourRetention   How long per hour aggregates are kept.
+     * @param maxSeries       The most users held, 0 to derive it from {@code heapBudget}.
+     * @param heapBudget      The share of the max heap the series may take when {@code maxSeries} is 0.
+     * @param maxClockSkew    How far ahead of the server clock a sample may be.
+     * @param snapshotPath    Where to snapshot the store, empty to keep it in memory only.
+     */
+    public HeartRateStore(@Value("${example.heart-rate.store.raw-retention:3d}") Duration rawRetention,
+                          @Value("${example.heart-rate.store.minute-retention:14d}") Duration minuteRetention,
+                          @Value("${example.heart-rate.store.hour-retention:90d}") Duration hourRetention,
+                          @Value("${example.heart-rate.store.max-series:0}") int maxSeries,
+                          @Value("${example.heart-rate.store.heap-budget:0.25}") double heapBudget,
+                          @Value("${example.heart-rate.store.max-clock-skew:1m}") Duration maxClockSkew,
+                          @Value("${example.heart-rate.store.snapshot.path:}") String snapshotPath,
+                          MeterRegistry registry) {
+        this.rawCapacity = Math.toIntExact(rawRetention.toSeconds());
+        this.tierWidths = new int[]{60, 3600};
+        this.tierCapacities = new int[]{
+                Math.toIntExact(minuteRetention.toMinutes()),
+                Math.toIntExact(hourRetention.toHours())
+        };
+        long seriesBytes = newSeries().bytes();
+        this.maxSeries = maxSeries > 0 ? maxSeries : fitting(heapBudget, seriesBytes);
+        this.maxClockSkew = maxClockSkew.toSeconds();
+        log.info("Holding the heart rate of at most {} users, {} bytes each", this.maxSeries, seriesBytes);
+        this.snapshot = StringUtils.isBlank(snapshotPath) ? null : Path.of(snapshotPath);
+
+        Gauge.builder("heartrate.store.series", series, Map::size)
+                .description("Users with heart rate data held in memory")
+                .register(registry);
+        Gauge.builder("heartrate.store.memory", this, HeartRateStore::bytes)
+                .description("Memory taken by the heart rate samples")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Records samples of one user, samples for a second that already has one, or that
+     * fell out of the retention since the user's latest sample, are ignored.
+     *
+     * @param seconds Epoch second of each sample, within the raw retention and at most
+     *                {@code max-clock-skew} ahead of now.
+     * @param values  The bpm of each sample, {@value #MIN_BPM} to {@value #MAX_BPM}.
+     * @return The samples actually stored.
+     * @throws IllegalArgumentException When a sample is out of range, nothing is stored then.
+     * @throws IllegalStateException    When the user is new and the store holds {@code max-series} users.
+     */
+    public boolean[] append(String user, long[] seconds, int[] values) {
+        validate(seconds, values);
+
+        SampleSeries s = series.get(user);
+        if (s == null) {
+            s = series.computeIfAbsent(user, u -> {
+                if (reserved.incrementAndGet() > maxSeries) {
+                    reserved.decrementAndGet();
+                    throw new IllegalStateException("Heart rate store is full");
+                }
+                return newSeries();
+            });
+        }
+
+        return s.append(seconds, values);
+    }
+
+    /**
+     * Reads {@code count} values, one per {@code step} seconds from {@code from}, 0 where
+     * there is no sample.
+     */
+    public void read(String user, long from, int step, int[] into, int count, Aggregate aggregate) {
+        SampleSeries s = series.get(user);
+        if (s == null) {
+            Arrays.fill(into, 0, count, 0);
+            return;
+        }
+        s.read(from, step, into, count, aggregate);
+    }
+
+    private void validate(long[] seconds, int[] values) {
+        long now = Instant.now().getEpochSecond();
+        // a far future sample would wipe the rings, an old one is already out of them
+        long oldest = now - rawCapacity + 1;
+        long newest = now + maxClockSkew;
+        for (int i = 0; i < seconds.length; i++) {
+            if (seconds[i] < oldest || seconds[i] > newest) {
+                throw new IllegalArgumentException("time " + seconds[i] + " is outside " + oldest + ".." + newest);
+            }
+            if (values[i] < MIN_BPM || values[i] > MAX_BPM) {
+                throw new IllegalArgumentException("bpm " + values[i] + " is outside " + MIN_BPM + ".." + MAX_BPM);
+            }
+        }
+    }
+
+    private static int fitting(double heapBudget, long seriesBytes) {
+        long budget = (long) (Runtime.getRuntime().maxMemory() * heapBudget);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / seriesBytes));
+    }
+
+    private SampleSeries newSeries() {
+        return new SampleSeries(rawCapacity, tierWidths, tierCapacities);
+    }
+
+    private double bytes() {
+        long bytes = 0;
+        for (SampleSeries s : series.values()) {
+            bytes += s.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the snapshot back, at most {@code max-series} users of it, e.g. when it was
+     * taken with a larger cap or heap.
+     */
+    @PostConstruct
+    public void restore() {
+        if (snapshot == null || !Files.exists(snapshot)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring heart rate snapshot {}, unknown format", snapshot);
+                return;
+            }
+            if (!layoutMatches(in)) {
+                log.warn("Ignoring heart rate snapshot {}, the retention changed", snapshot);
+                return;
+            }
+
+            int n = in.readInt();
+            List<String> skipped = new ArrayList<>();
+            SampleSeries discard = null;
+            for (int i = 0; i < n; i++) {
+                String user = in.readUTF();
+                if (!series.containsKey(user) && reserved.get() >= maxSeries) {
+                    // read past it, the series of the next user follows
+                    discard = discard != null ? discard : newSeries();
+                    discard.read(in);
+                    skipped.add(user);
+                    continue;
+                }
+                SampleSeries s = newSeries();
+                s.read(in);
+                if (series.put(user, s) == null) {
+                    reserved.incrementAndGet();
+                }
+            }
+            log.info("Restored the heart rate of {} users from {}", n - skipped.size(), snapshot);
+            if (!skipped.isEmpty()) {
+                log.warn("Skipped the heart rate of {} users from {}, max-series is {}: {}", skipped.size(), snapshot, maxSeries, skipped);
+            }
+        } catch (IOException e) {
+            series.clear();
+            reserved.set(0);
+            log.error("Failed to restore heart rate snapshot " + snapshot, e);
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${example.heart-rate.store.snapshot.interval:PT5M}")
+    public void snapshot() {
+        if (snapshot == null) {
+            return;
+        }
+
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeLayout(out);
+
+                // users added while writing are left for the next snapshot
+                Map<String, SampleSeries> copy = Map.copyOf(series);
+                out.writeInt(copy.size());
+                for (Map.Entry<String, SampleSeries> entry : copy.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to snapshot heart rate store to " + snapshot, e);
+        }
+    }
+
+    private void writeLayout(DataOutputStream out) throws IOException {
+        out.writeInt(rawCapacity);
+        out.writeInt(tierWidths.length);
+        for (int i = 0; i < tierWidths.length; i++) {
+            out.writeInt(tierWidths[i]);
+            out.writeInt(tierCapacities[i]);
+        }
+    }
+
+    private boolean layoutMatches(DataInputStream in) throws IOException {
+        if (in.readInt() != rawCapacity || in.readInt() != tierWidths.length) {
+            return false;
+        }
+        for (int i = 0; i < tierWidths.length; i++) {
+            if (in.readInt() != tierWidths[i] || in.readInt() != tierCapacities[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package io.klustr.example.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * One byte per second. The timestamp is implied by the slot and the value is the bpm
+ * as an unsigned byte, 0 meaning no sample.
+ */
+final class RawRing extends Ring {
+
+    private final byte[] values;
+
+    RawRing(int capacity) {
+        super(1, capacity);
+        this.values = new byte[capacity];
+    }
+
+    int get(long second) {
+        return values[slot(second)] & 0xFF;
+    }
+
+    void set(long second, int value) {
+        values[slot(second)] = (byte) value;
+    }
+
+    @Override
+    void clear(int slot) {
+        values[slot] = 0;
+    }
+
+    @Override
+    long bytes() {
+        return values.length;
+    }
+
+    @Override
+    void write(DataOutputStream out) throws IOException {
+        writeState(out);
+        out.write(values);
+    }
+
+    @Override
+    void read(DataInputStream in) throws IOException {
+        readState(in);
+        in.readFully(values);
+    }
+}
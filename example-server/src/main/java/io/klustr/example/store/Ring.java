@@ -0,0 +1,101 @@
+package io.klustr.example.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Fixed size ring of slots indexed by {@code second / width}, written by one thread and
+ * read by any number without locking.
+ * <p>
+ * The writer announces the newest index it is about to overwrite in {@code horizon}
+ * before touching the slots and publishes {@code latest} once done. A reader takes
+ * {@code latest} first, copies what it needs, then checks {@code horizon}: anything the
+ * writer may have wrapped over in the meantime is discarded instead of returned torn.
+ */
+abstract class Ring {
+
+    static final long EMPTY = Long.MIN_VALUE;
+
+    final int width;
+    final int capacity;
+
+    private volatile long latest = EMPTY;
+    private volatile long horizon = EMPTY;
+
+    Ring(int width, int capacity) {
+        this.width = width;
+        this.capacity = capacity;
+    }
+
+    abstract void clear(int slot);
+
+    abstract void write(DataOutputStream out) throws IOException;
+
+    abstract void read(DataInputStream in) throws IOException;
+
+    abstract long bytes();
+
+    final int slot(long index) {
+        return (int) Math.floorMod(index, (long) capacity);
+    }
+
+    final long index(long second) {
+        return Math.floorDiv(second, width);
+    }
+
+    /**
+     * Writer only, makes room for {@code index}.
+     *
+     * @return false when the index is already out of the retention.
+     */
+    final boolean advance(long index) {
+        long last = latest;
+        if (last == EMPTY || index > last) {
+            horizon = index;
+            // the slots must not be seen overwritten before the horizon moved
+            VarHandle.storeStoreFence();
+            if (last != EMPTY) {
+                for (long i = Math.max(last + 1, index - capacity + 1); i < index; i++) {
+                    clear(slot(i));
+                }
+            }
+            clear(slot(index));
+            return true;
+        }
+        return index > last - capacity;
+    }
+
+    /**
+     * Writer only, publishes the slots written since {@link #advance(long)}.
+     */
+    final void publish(long index) {
+        if (latest == EMPTY || index > latest) {
+            latest = index;
+        }
+    }
+
+    final long latest() {
+        return latest;
+    }
+
+    /**
+     * @return The oldest index that was not overwritten while a reader was copying.
+     */
+    final long oldestIntact() {
+        VarHandle.loadLoadFence();
+        long h = horizon;
+        return h == EMPTY ? EMPTY : h - capacity + 1;
+    }
+
+    void writeState(DataOutputStream out) throws IOException {
+        out.writeLong(latest);
+        out.writeLong(horizon);
+    }
+
+    void readState(DataInputStream in) throws IOException {
+        latest = in.readLong();
+        horizon = in.readLong();
+    }
+}
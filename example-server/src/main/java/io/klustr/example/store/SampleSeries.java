@@ -0,0 +1,175 @@
+package io.klustr.example.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The heart rate of one user: a ring of 1 Hz samples plus rings of per minute and per
+ * hour aggregates covering longer retentions.
+ * <p>
+ * Appends are serialized on the series, one lock per batch, reads never lock. A bucket still being filled
+ * can be read mid update, which at worst skews the average of the current minute or
+ * hour by one sample.
+ */
+final class SampleSeries {
+
+    private final RawRing raw;
+    // finest first
+    private final TierRing[] tiers;
+
+    SampleSeries(int rawCapacity, int[] tierWidths, int[] tierCapacities) {
+        this.raw = new RawRing(rawCapacity);
+        this.tiers = new TierRing[tierWidths.length];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new TierRing(tierWidths[i], tierCapacities[i]);
+        }
+    }
+
+    /**
+     * @param values The bpm of each second, 1 to 255, checked by the caller.
+     * @return For each sample, false when it is older than the retention or that second already has one.
+     */
+    synchronized boolean[] append(long[] seconds, int[] values) {
+        boolean[] stored = new boolean[seconds.length];
+        for (int i = 0; i < seconds.length; i++) {
+            stored[i] = append(seconds[i], values[i]);
+        }
+        return stored;
+    }
+
+    private boolean append(long second, int value) {
+        if (!raw.advance(second) || raw.get(second) != 0) {
+            return false;
+        }
+        raw.set(second, value);
+
+        for (TierRing tier : tiers) {
+            long index = tier.index(second);
+            if (tier.advance(index)) {
+                tier.add(index, value);
+                tier.publish(index);
+            }
+        }
+        raw.publish(second);
+        return true;
+    }
+
+    /**
+     * Fills {@code into} with one value per {@code step} seconds from {@code from}, 0 where
+     * there is no sample, reading from the coarsest tier that lines up with the request.
+     */
+    void read(long from, int step, int[] into, int count, Aggregate aggregate) {
+        Ring ring = pick(from, step);
+        int span = step / ring.width;
+
+        long latest = ring.latest();
+        long first = ring.index(from);
+        if (latest == Ring.EMPTY) {
+            Arrays.fill(into, 0, count, 0);
+            return;
+        }
+        long oldest = latest - ring.capacity + 1;
+
+        for (int i = 0; i < count; i++) {
+            long start = first + (long) i * span;
+            long lo = Math.max(start, oldest);
+            long hi = Math.min(start + span - 1, latest);
+            into[i] = lo > hi ? 0 : ring == raw ? foldRaw(lo, hi, aggregate) : foldTier((TierRing) ring, lo, hi, aggregate);
+        }
+
+        // drop what the writer wrapped over while we were reading
+        long intact = ring.oldestIntact();
+        for (int i = 0; i < count && first + (long) i * span < intact; i++) {
+            into[i] = 0;
+        }
+    }
+
+    private Ring pick(long from, int step) {
+        Ring fallback = raw;
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            TierRing tier = tiers[i];
+            if (step % tier.width != 0 || Math.floorMod(from, tier.width) != 0) {
+                continue;
+            }
+            if (tier.index(from) > tier.latest() - tier.capacity) {
+                return tier;
+            }
+            if (fallback == raw) {
+                fallback = tier;
+            }
+        }
+        return raw.index(from) > raw.latest() - raw.capacity ? raw : fallback;
+    }
+
+    private int foldRaw(long lo, long hi, Aggregate aggregate) {
+        if (lo == hi) {
+            return raw.get(lo);
+        }
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        int sum = 0;
+        int n = 0;
+        for (long s = lo; s <= hi; s++) {
+            int v = raw.get(s);
+            if (v != 0) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                sum += v;
+                n++;
+            }
+        }
+        return result(aggregate, min, max, sum, n);
+    }
+
+    private static int foldTier(TierRing tier, long lo, long hi, Aggregate aggregate) {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        long sum = 0;
+        int n = 0;
+        for (long b = lo; b <= hi; b++) {
+            int c = tier.count(b);
+            if (c != 0) {
+                min = Math.min(min, tier.min(b));
+                max = Math.max(max, tier.max(b));
+                sum += tier.sum(b);
+                n += c;
+            }
+        }
+        return result(aggregate, min, max, sum, n);
+    }
+
+    private static int result(Aggregate aggregate, int min, int max, long sum, int n) {
+        if (n == 0) {
+            return 0;
+        }
+        return switch (aggregate) {
+            case MIN -> min;
+            case MAX -> max;
+            case AVG -> (int) ((sum + n / 2) / n);
+        };
+    }
+
+    long bytes() {
+        long bytes = raw.bytes();
+        for (TierRing tier : tiers) {
+            bytes += tier.bytes();
+        }
+        return bytes;
+    }
+
+    synchronized void write(DataOutputStream out) throws IOException {
+        raw.write(out);
+        for (TierRing tier : tiers) {
+            tier.write(out);
+        }
+    }
+
+    synchronized void read(DataInputStream in) throws IOException {
+        raw.read(in);
+        for (TierRing tier : tiers) {
+            tier.read(in);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.klustr.example.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Min, max, sum and count of the samples of each {@code width} seconds, kept up to date
+ * as samples arrive so downsampled queries read one bucket instead of {@code width} samples.
+ */
+final class TierRing extends Ring {
+
+    private final byte[] min;
+    private final byte[] max;
+    private final int[] sum;
+    private final short[] count;
+
+    TierRing(int width, int capacity) {
+        super(width, capacity);
+        if (width > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("tier width " + width + "s is too large");
+        }
+        this.min = new byte[capacity];
+        this.max = new byte[capacity];
+        this.sum = new int[capacity];
+        this.count = new short[capacity];
+    }
+
+    void add(long index, int value) {
+        int slot = slot(index);
+        if (count[slot] == 0) {
+            min[slot] = (byte) value;
+            max[slot] = (byte) value;
+        } else {
+            min[slot] = (byte) Math.min(min[slot] & 0xFF, value);
+            max[slot] = (byte) Math.max(max[slot] & 0xFF, value);
+        }
+        sum[slot] += value;
+        count[slot]++;
+    }
+
+    int count(long index) {
+        return count[slot(index)];
+    }
+
+    int min(long index) {
+        return min[slot(index)] & 0xFF;
+    }
+
+    int max(long index) {
+        return max[slot(index)] & 0xFF;
+    }
+
+    int sum(long index) {
+        return sum[slot(index)];
+    }
+
+    @Override
+    void clear(int slot) {
+        min[slot] = 0;
+        max[slot] = 0;
+        sum[slot] = 0;
+        count[slot] = 0;
+    }
+
+    @Override
+    long bytes() {
+        return (long) capacity * (1 + 1 + 4 + 2);
+    }
+
+    @Override
+    void write(DataOutputStream out) throws IOException {
+        writeState(out);
+        out.write(min);
+        out.write(max);
+        for (int i = 0; i < capacity; i++) {
+            out.writeInt(sum[i]);
+        }
+        for (int i = 0; i < capacity; i++) {
+            out.writeShort(count[i]);
+        }
+    }
+
+    @Override
+    void read(DataInputStream in) throws IOException {
+        readState(in);
+        in.readFully(min);
+        in.readFully(max);
+        for (int i = 0; i < capacity; i++) {
+            sum[i] = in.readInt();
+        }
+        for (int i = 0; i < capacity; i++) {
+            count[i] = in.readShort();
+        }
+    }
+}
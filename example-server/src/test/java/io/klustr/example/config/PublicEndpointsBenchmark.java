@@ -0,0 +1,83 @@
+package io.klustr.example.config;
+
+import io.klustr.spring.config.PathTrieRequestMatcher;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time per decision of {@link StandardSecurityConfiguration#publicEndpoints()} against
+ * the {@code requestMatchers(...)} list it replaced, over the requests of
+ * {@link PublicEndpointsTest}. Skipped by the build, run it with
+ * {@code mvn test -Dtest=PublicEndpointsBenchmark -Dbenchmark=true}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class PublicEndpointsBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(PublicEndpointsBenchmark.class);
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    @BeforeAll
+    static void startMvc() {
+        PublicEndpointsTest.startMvc();
+    }
+
+    @AfterAll
+    static void stopMvc() {
+        PublicEndpointsTest.stopMvc();
+    }
+
+    @Test
+    public void decide() {
+        List<HttpServletRequest> requests = new ArrayList<>();
+        for (String method : PublicEndpointsTest.METHODS) {
+            for (String path : PublicEndpointsTest.paths()) {
+                requests.add(PublicEndpointsTest.request(method, path));
+            }
+        }
+
+        RequestMatcher legacy = PublicEndpointsTest.legacyPublicEndpoints();
+        PathTrieRequestMatcher trie = StandardSecurityConfiguration.publicEndpoints();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(legacy, requests);
+            run(trie, requests);
+        }
+
+        long legacyNanos = 0;
+        long trieNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            legacyNanos += run(legacy, requests);
+            trieNanos += run(trie, requests);
+        }
+        long decisions = (long) ROUNDS * requests.size();
+        log.info("requestMatchers: {} ns/request, trie: {} ns/request, over {} requests",
+                legacyNanos / decisions, trieNanos / decisions, decisions);
+    }
+
+    private static long run(RequestMatcher matcher, List<HttpServletRequest> requests) {
+        int matched = 0;
+        long start = System.nanoTime();
+        for (HttpServletRequest request : requests) {
+            if (matcher.matches(request)) {
+                matched++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (matched == 0) {
+            throw new IllegalStateException("no request matched");
+        }
+        return nanos;
+    }
+}
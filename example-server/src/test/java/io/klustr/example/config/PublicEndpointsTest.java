@@ -0,0 +1,166 @@
+package io.klustr.example.config;
+
+import io.klustr.spring.config.PathTrieRequestMatcher;
+import io.klustr.spring.config.StandardizedApiConfigurer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.security.web.servlet.util.matcher.MvcRequestMatcher;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.PathMatchConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.handler.HandlerMappingIntrospector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link StandardSecurityConfiguration#publicEndpoints()} decides every request
+ * like the {@code requestMatchers(...)} list it replaced.
+ */
+public class PublicEndpointsTest {
+
+    static final List<String> METHODS = List.of("GET", "HEAD", "POST", "PUT", "PATCH", "DELETE");
+
+    private static final List<String> SEGMENTS = List.of("", "api", "apix", "API", "metrics", "actuator", "actuatorx",
+            "health", "i18n", "error", "x", "example", "ws", "swagger", "swagger-ui", "index.html", "v3", "api-docs",
+            "api-docs.yaml", "api-docs.json", "api-docs.yml", "everything", "a;b=1");
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    /**
+     * Spring MVC as the server configures it, with a handler for every path so the
+     * matchers below are decided by the request mappings, trailing slash match included.
+     */
+    @Configuration
+    @EnableWebMvc
+    static class Mvc implements WebMvcConfigurer {
+        @Override
+        public void configurePathMatch(PathMatchConfigurer configurer) {
+            configurer.setUseTrailingSlashMatch(StandardizedApiConfigurer.TRAILING_SLASH_MATCH);
+        }
+    }
+
+    @RestController
+    static class AnyPath {
+        @RequestMapping("/**")
+        public void handle() {
+        }
+    }
+
+    @BeforeAll
+    static void startMvc() {
+        context = new AnnotationConfigWebApplicationContext();
+        context.register(Mvc.class, AnyPath.class);
+        context.setServletContext(new MockServletContext());
+        context.refresh();
+    }
+
+    @AfterAll
+    static void stopMvc() {
+        context.close();
+    }
+
+    /**
+     * The matchers {@code web.ignoring().requestMatchers(...)} was given before the trie.
+     */
+    static RequestMatcher legacyPublicEndpoints() {
+        MvcRequestMatcher.Builder mvc = new MvcRequestMatcher.Builder(context.getBean(HandlerMappingIntrospector.class));
+        return new OrRequestMatcher(
+                mvc.pattern(HttpMethod.GET, "/metrics/**"),
+                mvc.pattern(HttpMethod.GET, "/actuator*"),
+                mvc.pattern(HttpMethod.GET, "/actuator/**"),
+
+                mvc.pattern(HttpMethod.GET, "/i18n/**"),
+                mvc.pattern(HttpMethod.GET, "/error/**"),
+
+                mvc.pattern(HttpMethod.GET, "/example/ws"),
+
+                mvc.pattern(HttpMethod.GET, "/swagger-ui/**"),
+                mvc.pattern(HttpMethod.GET, "/api-docs/**"),
+                mvc.pattern(HttpMethod.GET, "/api-docs.yaml/**"),
+                mvc.pattern(HttpMethod.GET, "/api-docs.json/**"),
+                mvc.pattern(HttpMethod.GET, "/v3/api-docs/**"),
+                mvc.pattern(HttpMethod.GET, "/v3/api-docs.yaml"),
+                mvc.pattern(HttpMethod.GET, "/v3/api-docs.yaml/**"),
+                mvc.pattern(HttpMethod.GET, "/v3/api-docs.json/**"),
+                mvc.pattern(HttpMethod.GET, "/v3/api-docs.yml"),
+                mvc.pattern(HttpMethod.GET, "/v3/api-docs.json"),
+                mvc.pattern(HttpMethod.GET, "/v3/api-docs.yaml/everything"),
+
+                mvc.pattern(HttpMethod.POST, "/swagger/*"),
+                mvc.pattern(HttpMethod.POST, "/api-docs/*"),
+                mvc.pattern(HttpMethod.POST, "/error/*"),
+                mvc.pattern(HttpMethod.PUT, "/swagger/*"),
+                mvc.pattern(HttpMethod.PUT, "/api-docs/*"),
+                mvc.pattern(HttpMethod.PUT, "/error/*"),
+                mvc.pattern(HttpMethod.DELETE, "/swagger/*"),
+                mvc.pattern(HttpMethod.DELETE, "/api-docs/*"),
+                mvc.pattern(HttpMethod.DELETE, "/error/*"));
+    }
+
+    static List<String> paths() {
+        List<String> paths = new ArrayList<>(List.of("/", "//"));
+        for (String a : SEGMENTS) {
+            paths.add("/" + a);
+            paths.add("/" + a + "/");
+            for (String b : SEGMENTS) {
+                paths.add("/" + a + "/" + b);
+                paths.add("/" + a + "/" + b + "/");
+                paths.add("/" + a + "/" + b + "/x");
+            }
+        }
+        return paths;
+    }
+
+    static HttpServletRequest request(String method, String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.setServletPath(path);
+        return request;
+    }
+
+    @Test
+    public void matchesLikeTheRequestMatchersItReplaced() {
+        RequestMatcher legacy = legacyPublicEndpoints();
+        PathTrieRequestMatcher trie = StandardSecurityConfiguration.publicEndpoints();
+
+        int matched = 0;
+        List<String> mismatches = new ArrayList<>();
+        for (String method : METHODS) {
+            for (String path : paths()) {
+                boolean expected = legacy.matches(request(method, path));
+                if (trie.matches(request(method, path)) != expected) {
+                    mismatches.add(method + " " + path + " should " + (expected ? "" : "not ") + "match");
+                }
+                matched += expected ? 1 : 0;
+            }
+        }
+
+        assertEquals(List.of(), mismatches);
+        // the paths must exercise both outcomes
+        assertTrue(matched > 100, "only " + matched + " requests matched");
+    }
+
+    @Test
+    public void trailingSlashIsIgnoredLikeSpringMvc() {
+        PathTrieRequestMatcher trie = StandardSecurityConfiguration.publicEndpoints();
+
+        assertTrue(trie.matches(request("GET", "/v3/api-docs.yml/")));
+        assertTrue(trie.matches(request("GET", "/example/ws/")));
+        assertEquals(false, trie.matches(request("GET", "/v3/api-docs.yml//")));
+        assertEquals(false, new PathTrieRequestMatcher().add("/v3/api-docs.yml").matches(request("GET", "/v3/api-docs.yml/")));
+    }
+}
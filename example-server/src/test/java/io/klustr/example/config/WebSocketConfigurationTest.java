@@ -0,0 +1,87 @@
+package io.klustr.example.config;
+
+import io.klustr.example.services.HeartRateStream;
+import io.klustr.spring.oauth.StompBearerTokenInterceptor;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.core.DefaultOAuth2AuthenticatedPrincipal;
+import org.springframework.security.oauth2.server.resource.introspection.OpaqueTokenIntrospector;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WebSocketConfigurationTest {
+
+    private static final String READ = "SCOPE_fitness.heart_rate.read";
+
+    private final OpaqueTokenIntrospector introspector = mock(OpaqueTokenIntrospector.class);
+    private final MessageChannel channel = mock(MessageChannel.class);
+    private final StompBearerTokenInterceptor interceptor =
+            new WebSocketConfiguration(introspector, mock(HeartRateStream.class)).stompAuthentication();
+
+    @Test
+    public void patternSubscriptionsWithoutScopeAreDenied() {
+        Principal user = connect("no-scope", "SCOPE_profile");
+
+        for (String destination : List.of("/queue/**", "/queue/heartrate*", "/queue/heartrate-user1",
+                "/user/queue/heartrate", "/user/queue/heartrate*", "/user/queue/**")) {
+            assertThrows(MessageDeliveryException.class, () -> subscribe(user, destination), destination);
+        }
+    }
+
+    @Test
+    public void brokerDestinationsAreDeniedWithScope() {
+        Principal user = connect("read", "SCOPE_profile", READ);
+
+        for (String destination : List.of("/queue/**", "/queue/heartrate*", "/queue/heartrate-user1", "/app/heartrate")) {
+            assertThrows(MessageDeliveryException.class, () -> subscribe(user, destination), destination);
+        }
+        assertDoesNotThrow(() -> subscribe(user, HeartRateStream.DESTINATION));
+    }
+
+    @Test
+    public void inactiveTokenIsRejectedOnConnect() {
+        when(introspector.introspect("inactive")).thenReturn(null);
+
+        assertThrows(MessageDeliveryException.class, () -> interceptor.preSend(connectMessage("inactive"), channel));
+    }
+
+    private Principal connect(String token, String... authorities) {
+        List<GrantedAuthority> granted = Arrays.stream(authorities).<GrantedAuthority>map(SimpleGrantedAuthority::new).toList();
+        when(introspector.introspect(token)).thenReturn(
+                new DefaultOAuth2AuthenticatedPrincipal(token, Map.of("sub", token), granted));
+
+        Message<?> connected = interceptor.preSend(connectMessage(token), channel);
+        return StompHeaderAccessor.wrap(connected).getUser();
+    }
+
+    private void subscribe(Principal user, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setUser(user);
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setLeaveMutable(true);
+        interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), channel);
+    }
+
+    private static Message<byte[]> connectMessage(String token) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setNativeHeader("Authorization", "Bearer " + token);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
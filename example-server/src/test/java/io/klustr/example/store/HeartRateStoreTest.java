@@ -0,0 +1,86 @@
+package io.klustr.example.store;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HeartRateStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final long now = Instant.now().getEpochSecond();
+
+    @Test
+    public void snapshotIsRestored() {
+        Path snapshot = dir.resolve("heart-rate.bin");
+        HeartRateStore store = store(10, snapshot);
+        store.append("alice", new long[]{now - 2, now - 1, now}, new int[]{60, 61, 62});
+        store.append("bob", new long[]{now}, new int[]{90});
+        store.snapshot();
+
+        HeartRateStore restored = store(10, snapshot);
+        restored.restore();
+
+        assertArrayEquals(new int[]{60, 61, 62}, read(restored, "alice", now - 2, 3));
+        assertArrayEquals(new int[]{90}, read(restored, "bob", now, 1));
+        assertArrayEquals(new int[]{0}, read(restored, "carol", now, 1));
+    }
+
+    @Test
+    public void restoreStopsAtMaxSeries() {
+        Path snapshot = dir.resolve("heart-rate.bin");
+        HeartRateStore store = store(10, snapshot);
+        List<String> users = List.of("alice", "bob", "carol", "dave");
+        for (int i = 0; i < users.size(); i++) {
+            store.append(users.get(i), new long[]{now}, new int[]{60 + i});
+        }
+        store.snapshot();
+
+        HeartRateStore smaller = store(2, snapshot);
+        smaller.restore();
+
+        int restored = 0;
+        for (int i = 0; i < users.size(); i++) {
+            int value = read(smaller, users.get(i), now, 1)[0];
+            if (value != 0) {
+                // the users that fitted come back whole, the others are skipped cleanly
+                assertEquals(60 + i, value, users.get(i));
+                restored++;
+            }
+        }
+        assertEquals(2, restored);
+        assertThrows(IllegalStateException.class, () -> smaller.append("erin", new long[]{now}, new int[]{70}));
+    }
+
+    @Test
+    public void outOfRangeSamplesAreRejected() {
+        HeartRateStore store = store(10, null);
+
+        assertThrows(IllegalArgumentException.class, () -> store.append("alice", new long[]{now}, new int[]{0}));
+        assertThrows(IllegalArgumentException.class, () -> store.append("alice", new long[]{now}, new int[]{256}));
+        assertThrows(IllegalArgumentException.class, () -> store.append("alice", new long[]{now + 3600}, new int[]{60}));
+        assertThrows(IllegalArgumentException.class, () -> store.append("alice", new long[]{now - 7200}, new int[]{60}));
+        assertArrayEquals(new int[]{0}, read(store, "alice", now, 1));
+    }
+
+    private static HeartRateStore store(int maxSeries, Path snapshot) {
+        return new HeartRateStore(Duration.ofHours(1), Duration.ofHours(2), Duration.ofHours(4), maxSeries, 0.25,
+                Duration.ofMinutes(1), snapshot == null ? "" : snapshot.toString(), new SimpleMeterRegistry());
+    }
+
+    private static int[] read(HeartRateStore store, String user, long from, int count) {
+        int[] into = new int[count];
+        store.read(user, from, 1, into, count, Aggregate.AVG);
+        return into;
+    }
+}
@@ -0,0 +1,168 @@
+package io.klustr.example.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SampleSeriesTest {
+
+    // two minutes of raw samples, one minute of 10s buckets, four minutes of 1m buckets
+    private static final int RAW = 120;
+    private static final int[] WIDTHS = {10, 60};
+    private static final int[] CAPACITIES = {6, 4};
+
+    // aligned on every tier
+    private static final long T = 1_700_000_040L;
+
+    private final SampleSeries series = new SampleSeries(RAW, WIDTHS, CAPACITIES);
+
+    @Test
+    public void samplesAreReadBack() {
+        boolean[] stored = append(T, 60, 61, 62, 63);
+
+        assertArrayEquals(new boolean[]{true, true, true, true}, stored);
+        assertArrayEquals(new int[]{60, 61, 62, 63, 0}, read(T, 1, 5, Aggregate.AVG));
+        assertArrayEquals(new int[]{0, 60}, read(T - 1, 1, 2, Aggregate.AVG));
+    }
+
+    @Test
+    public void aSecondKeepsItsFirstSample() {
+        append(T, 60);
+
+        assertArrayEquals(new boolean[]{false}, append(T, 90));
+        assertArrayEquals(new boolean[]{true, false}, series.append(new long[]{T + 1, T + 1}, new int[]{70, 80}));
+        assertArrayEquals(new int[]{60, 70}, read(T, 1, 2, Aggregate.AVG));
+        assertArrayEquals(new int[]{65}, read(T, 10, 1, Aggregate.AVG));
+    }
+
+    @Test
+    public void rawRingWrapsAround() {
+        // fill the ring, then go 10s past its end
+        for (long s = T; s < T + RAW; s++) {
+            append(s, bpm(s));
+        }
+        append(T + RAW + 10, 99);
+
+        int[] values = read(T, 1, RAW + 11, Aggregate.AVG);
+        for (int i = 0; i < values.length; i++) {
+            long s = T + i;
+            int expected = s == T + RAW + 10 ? 99 : s <= T + 10 || s >= T + RAW ? 0 : bpm(s);
+            assertEquals(expected, values[i], "second " + i);
+        }
+
+        // anything before the retention of the latest sample is refused, within it is taken
+        assertArrayEquals(new boolean[]{false}, append(T + 10, 50));
+        assertArrayEquals(new boolean[]{true}, append(T + RAW + 5, 55));
+        assertArrayEquals(new int[]{55}, read(T + RAW + 5, 1, 1, Aggregate.AVG));
+    }
+
+    @Test
+    public void readerDropsWhatTheWriterWrapsOver() {
+        RawRing ring = new RawRing(10);
+        for (long s = 0; s < 10; s++) {
+            ring.advance(s);
+            ring.set(s, 60);
+            ring.publish(s);
+        }
+        assertEquals(0, ring.oldestIntact());
+
+        // the writer is half way through second 15: the horizon moved, latest did not
+        ring.advance(15);
+        assertEquals(9, ring.latest());
+        assertEquals(6, ring.oldestIntact());
+        ring.set(15, 70);
+        ring.publish(15);
+        assertEquals(15, ring.latest());
+        assertEquals(0, ring.get(10));
+        assertEquals(60, ring.get(9));
+    }
+
+    @Test
+    public void tiersKeepMinMaxAndAverage() {
+        // 80 .. 139 over one minute, plus a gap
+        for (long s = T; s < T + 60; s++) {
+            if (s != T + 5) {
+                append(s, 80 + (int) (s - T));
+            }
+        }
+
+        assertArrayEquals(new int[]{80, 90, 100, 110, 120, 130}, read(T, 10, 6, Aggregate.MIN));
+        assertArrayEquals(new int[]{89, 99, 109, 119, 129, 139}, read(T, 10, 6, Aggregate.MAX));
+        // (80 + .. + 89 - 85) / 9 = 84.44, the other buckets average x4.5 which rounds up
+        assertArrayEquals(new int[]{84, 95, 105, 115, 125, 135}, read(T, 10, 6, Aggregate.AVG));
+
+        assertArrayEquals(new int[]{80}, read(T, 60, 1, Aggregate.MIN));
+        assertArrayEquals(new int[]{139}, read(T, 60, 1, Aggregate.MAX));
+        long sum = IntStream.range(80, 140).sum() - 85;
+        assertArrayEquals(new int[]{(int) ((sum + 29) / 59)}, read(T, 60, 1, Aggregate.AVG));
+
+        // a step covering several buckets folds them
+        assertArrayEquals(new int[]{80, 100, 120}, read(T, 20, 3, Aggregate.MIN));
+    }
+
+    @Test
+    public void tiersOutliveTheRawRetention() {
+        append(T, 60, 70, 80);
+        // three minutes later the raw ring and the 10s tier no longer hold T
+        append(T + 180, 100);
+
+        assertArrayEquals(new int[]{0, 0, 0}, read(T, 1, 3, Aggregate.AVG));
+        assertArrayEquals(new int[]{0}, read(T, 10, 1, Aggregate.AVG));
+        assertArrayEquals(new int[]{60, 0, 0, 100}, read(T, 60, 4, Aggregate.MIN));
+        assertArrayEquals(new int[]{80, 0, 0, 100}, read(T, 60, 4, Aggregate.MAX));
+
+        // past four minutes the 1m tier drops it too
+        append(T + 240, 100);
+        assertArrayEquals(new int[]{0, 0, 0, 100, 100}, read(T, 60, 5, Aggregate.MAX));
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws Exception {
+        for (long s = T; s < T + 200; s += 3) {
+            append(s, bpm(s));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        series.write(new DataOutputStream(bytes));
+        SampleSeries restored = new SampleSeries(RAW, WIDTHS, CAPACITIES);
+        restored.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        for (Aggregate aggregate : Aggregate.values()) {
+            for (int step : new int[]{1, 10, 60}) {
+                int[] expected = read(T, step, 240 / step, aggregate);
+                int[] actual = new int[expected.length];
+                restored.read(T, step, actual, actual.length, aggregate);
+                assertArrayEquals(expected, actual, aggregate + " every " + step + "s");
+            }
+        }
+
+        // the restored series carries on where the original stopped
+        assertFalse(restored.append(new long[]{T + 198}, new int[]{1})[0]);
+        assertTrue(restored.append(new long[]{T + 200}, new int[]{1})[0]);
+    }
+
+    private boolean[] append(long from, int... values) {
+        long[] seconds = LongStream.range(from, from + values.length).toArray();
+        return series.append(seconds, values);
+    }
+
+    private int[] read(long from, int step, int count, Aggregate aggregate) {
+        int[] into = new int[count];
+        series.read(from, step, into, count, aggregate);
+        return into;
+    }
+
+    private static int bpm(long second) {
+        return 40 + (int) (second % 150);
+    }
+}
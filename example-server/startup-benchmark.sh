@@ -0,0 +1,69 @@
+#!/usr/bin/env bash
+#
+# Time to first successful request of example-server, the delay a new instance adds
+# when scaling out. Measured from process launch to the first 2xx of $URL, the
+# liveness probe, which unlike /actuator/health does not wait on dependencies. A run
+# not answering within $TIMEOUT seconds fails.
+#
+#   ./startup-benchmark.sh [runs] [mode...]
+#
+# Modes:
+#   jar   java -jar, the default build
+#   aot   Spring AOT, needs mvn -Pfast-startup package
+#   fast  Spring AOT plus the class data sharing archive of the training run
+#
+set -euo pipefail
+cd "$(dirname "$0")"
+
+RUNS=${1:-5}
+shift || true
+MODES=${*:-jar aot fast}
+PORT=${PORT:-5077}
+URL=${URL:-http://127.0.0.1:$PORT/actuator/health/liveness}
+TIMEOUT=${TIMEOUT:-120}
+JAVA=${JAVA:-java}
+
+JAR=target/example-server-0.1.0.jar
+CLASSPATH_AOT="$JAR.original:target/fast-startup/dependencies/BOOT-INF/lib/*:target/fast-startup/application/BOOT-INF/lib/*"
+ARCHIVE=target/fast-startup/application.jsa
+
+launch() {
+    case $1 in
+        jar) exec "$JAVA" -jar "$JAR" --server.port="$PORT" ;;
+        aot) exec "$JAVA" -Dspring.aot.enabled=true -cp "$CLASSPATH_AOT" io.klustr.example.Server --server.port="$PORT" ;;
+        fast) exec "$JAVA" -XX:SharedArchiveFile="$ARCHIVE" -Dspring.aot.enabled=true -cp "$CLASSPATH_AOT" io.klustr.example.Server --server.port="$PORT" ;;
+        *) echo "unknown mode $1" >&2; exit 2 ;;
+    esac
+}
+
+now_ms() {
+    date +%s%3N
+}
+
+for mode in $MODES; do
+    times=()
+    for _ in $(seq 1 "$RUNS"); do
+        start=$(now_ms)
+        (launch "$mode") >/dev/null 2>&1 &
+        pid=$!
+        deadline=$((start + TIMEOUT * 1000))
+        until curl -sf -o /dev/null --max-time 1 "$URL"; do
+            if ! kill -0 "$pid" 2>/dev/null; then
+                echo "$mode: server exited before answering" >&2
+                exit 1
+            fi
+            if [ "$(now_ms)" -ge "$deadline" ]; then
+                echo "$mode: no answer from $URL within ${TIMEOUT}s" >&2
+                kill "$pid"
+                exit 1
+            fi
+            sleep 0.02
+        done
+        times+=($(($(now_ms) - start)))
+        kill "$pid"
+        wait "$pid" 2>/dev/null || true
+    done
+
+    sorted=($(printf '%s\n' "${times[@]}" | sort -n))
+    echo "$mode: median ${sorted[$((RUNS / 2))]} ms, min ${sorted[0]} ms, max ${sorted[$((RUNS - 1))]} ms over $RUNS runs"
+done